@@ -0,0 +1,69 @@
+package com.ibm.lwm2m;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.mqttv3.binding.BenchFixtures;
+import com.ibm.mqttv3.binding.Request;
+
+/**
+ * Measures the write attributes a client receives, from the content of the
+ * request to the {@link ObserveSpec}: the periods alone, all the attributes
+ * and a cancel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObserveSpecParserBenchmark {
+
+	@Param({ "periods", "all", "cancel" })
+	public String attributes;
+
+	private List<String> queries;
+	private String content;
+
+	@Setup
+	public void setup() {
+		if("periods".equals(attributes)) {
+			queries = Arrays.asList("pmin=10", "pmax=60");
+		} else if("all".equals(attributes)) {
+			queries = BenchFixtures.OBSERVE_QUERIES;
+		} else {
+			queries = Arrays.asList("cancel");
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String query : queries) {
+			if(sb.length() > 0) {
+				sb.append('&');
+			}
+			sb.append(query);
+		}
+		content = sb.toString();
+	}
+
+	@Benchmark
+	public ObserveSpec parse() {
+		return ObserveSpecParser.parse(queries);
+	}
+
+	@Benchmark
+	public ObserveSpec parseContent() {
+		return ObserveSpecParser.parse(Request.getParameters(content));
+	}
+}
@@ -0,0 +1,138 @@
+package com.ibm.lwm2m.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.lwm2m.objects.TemperatureSensorObject;
+import com.ibm.mqttv3.binding.AbstractRequestObserver;
+import com.ibm.mqttv3.binding.BenchFixtures;
+import com.ibm.mqttv3.binding.Framing;
+import com.ibm.mqttv3.binding.LoopbackBroker;
+import com.ibm.mqttv3.binding.MQTT;
+import com.ibm.mqttv3.binding.MQTTWrapper;
+import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+import com.ibm.mqttv3.binding.Request;
+import com.ibm.mqttv3.binding.Response;
+
+/**
+ * Measures the reads of a server from virtual devices, the request and the
+ * response going through the {@link LoopbackBroker}: the framing, the
+ * routing to the resource of the device, the correlation of the response
+ * and the dispatching on both sides, without the network and a broker.
+ *
+ * The reads go one after the other, each one waiting for its response, and
+ * in batches sent all at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackRoundTripBenchmark {
+
+	private static final int BATCH = 100;
+
+	@Param({ "1", "1000" })
+	public int devices;
+
+	@Param({ "TEXT", "BINARY" })
+	public Framing framing;
+
+	private VirtualDeviceRuntime runtime;
+	private MQTTWrapper server;
+	private MqttV3MessageReceiver receiver;
+	private int next;
+	private final AtomicLong responses = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		LoopbackBroker broker = new LoopbackBroker();
+		runtime = new VirtualDeviceRuntime(broker, "bench", 2);
+		runtime.start();
+		for (int i = 0; i < devices; i++) {
+			LwM2MClient client = runtime.addDevice(BenchFixtures.ORGANIZATION, BenchFixtures.CLIENT_ENDPOINT + i,
+					BenchFixtures.CLIENT_APPLICATION, BenchFixtures.SERVER_ENDPOINT,
+					BenchFixtures.SERVER_APPLICATION, framing);
+			TemperatureSensorObject.createObject(client);
+			TemperatureSensorObject.createObjectInstance(client);
+		}
+
+		server = new MQTTWrapper(broker.create(BenchFixtures.SERVER_ENDPOINT), BenchFixtures.SERVER_ENDPOINT);
+		server.start();
+		receiver = new MqttV3MessageReceiver(server);
+		server.setCallBack(receiver);
+		server.subscribe(Request.RESPONSE_TOPIC_STARTER + "/" + BenchFixtures.ORGANIZATION + "/"
+				+ BenchFixtures.SERVER_ENDPOINT + "/" + BenchFixtures.SERVER_APPLICATION + "/#", 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop();
+		runtime.stop();
+	}
+
+	@Benchmark
+	public void read() throws Exception {
+		long expected = responses.get() + 1;
+		send();
+		await(expected);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readBatch() throws Exception {
+		long expected = responses.get() + BATCH;
+		for (int i = 0; i < BATCH; i++) {
+			send();
+		}
+		await(expected);
+	}
+
+	private void send() {
+		Request request = Request.newGet();
+		request.setPayloadContent(MQTT.GET.READ.toString());
+		request.setOrganizationID(BenchFixtures.ORGANIZATION);
+		request.setEndPointId(BenchFixtures.CLIENT_ENDPOINT + (next++ % devices));
+		request.setApplicationID(BenchFixtures.CLIENT_APPLICATION);
+		request.setRequestorEndpointID(BenchFixtures.SERVER_ENDPOINT);
+		request.setRequestorApplicationID(BenchFixtures.SERVER_APPLICATION);
+		request.setFraming(framing);
+		request.addURIPath("3303");
+		request.addURIPath("0");
+		request.addURIPath("5700");
+		receiver.addRequest(request.getMessageID(), new AbstractRequestObserver(request) {
+			@Override
+			public void onResponse(Response mqttResponse) {
+				responses.incrementAndGet();
+			}
+
+			@Override
+			public void onError(Response mqttResponse) {
+				responses.incrementAndGet();
+			}
+		});
+		server.publish(request);
+	}
+
+	private void await(long expected) {
+		while (responses.get() < expected) {
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.ibm.mqttv3.binding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Topics and payloads the benchmarks share, as a server with the endpoint
+ * 56783 of the application leshan-server and a device 10 of the
+ * application mqtt-client in the organization eclipse exchange them.
+ */
+public final class BenchFixtures {
+
+	public static final String ORGANIZATION = "eclipse";
+	public static final String SERVER_ENDPOINT = "56783";
+	public static final String SERVER_APPLICATION = "leshan-server";
+	public static final String CLIENT_ENDPOINT = "10";
+	public static final String CLIENT_APPLICATION = "mqtt-client";
+
+	/* a message-id in the range a long running server reaches */
+	public static final long MESSAGE_ID = 1048576;
+
+	/* response of the device to a read of the temperature */
+	public static final String RESPONSE_TOPIC = Request.RESPONSE_TOPIC_STARTER + "/" + ORGANIZATION + "/"
+			+ SERVER_ENDPOINT + "/" + SERVER_APPLICATION + "/" + MESSAGE_ID;
+	public static final String READ_RESPONSE = "21.5";
+
+	/* a content of a few resources, like the read of an object instance */
+	public static final String INSTANCE_RESPONSE = "{\"e\":[{\"n\":\"5700\",\"v\":21.5},"
+			+ "{\"n\":\"5701\",\"sv\":\"Cel\"},{\"n\":\"5601\",\"v\":18.0},{\"n\":\"5602\",\"v\":24.5}]}";
+
+	/* the queries of a write attributes request */
+	public static final List<String> OBSERVE_QUERIES = Arrays.asList("pmin=10", "pmax=60", "gt=25.5", "lt=5.0",
+			"st=0.5");
+
+	private BenchFixtures() {
+	}
+
+	public static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Frames a CONTENT response like the device does with the given framing
+	 */
+	public static byte[] content(String payload, Framing framing) {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setPayload(payload);
+		return response.getMessageAsBytes(framing);
+	}
+}
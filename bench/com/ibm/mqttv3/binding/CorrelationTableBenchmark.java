@@ -0,0 +1,117 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Compares the {@link CorrelationTable} of the pending requests with the
+ * ConcurrentHashMap of boxed message-ids it replaced, with the given number
+ * of requests in flight on the connection.
+ *
+ * lookup routes the response of a pending request, request adds a request,
+ * routes its response and completes the oldest one of the thread so the
+ * number in flight stays the same. Run with -prof gc to see the boxes and
+ * map nodes the map allocates per request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class CorrelationTableBenchmark {
+
+	/* upper bound of the threads, each one owns the ids i, i + MAX_THREADS, ... */
+	private static final int MAX_THREADS = 64;
+
+	@State(Scope.Benchmark)
+	public static class Tables {
+
+		@Param({ "100000" })
+		public int inFlight;
+
+		final CorrelationTable<Object> table = new CorrelationTable<Object>(MQTTWrapper.MAX_PENDING_REQUESTS);
+		final ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<Long, Object>();
+		final AtomicInteger threads = new AtomicInteger();
+		final Object observer = new Object();
+	}
+
+	@State(Scope.Thread)
+	public static class Requests {
+
+		/* the ids this thread keeps in flight, the oldest is next - window * MAX_THREADS */
+		long next;
+		long window;
+		long lookup;
+		int thread;
+
+		@Setup
+		public void setup(Tables tables, BenchmarkParams params) {
+			thread = tables.threads.getAndIncrement();
+			if (thread >= MAX_THREADS) {
+				throw new IllegalStateException("at most " + MAX_THREADS + " threads");
+			}
+			window = Math.max(1, tables.inFlight / params.getThreads());
+			for (long i = 0; i < window; i++) {
+				long messageID = thread + i * MAX_THREADS;
+				tables.table.put(messageID, tables.observer);
+				tables.map.put(messageID, tables.observer);
+			}
+			next = thread + window * MAX_THREADS;
+			lookup = thread;
+		}
+
+		/* a pending id of this thread, in the order of the requests */
+		long nextLookup() {
+			long messageID = lookup;
+			lookup += MAX_THREADS;
+			if (lookup >= next) {
+				lookup = next - window * MAX_THREADS;
+			}
+			return messageID;
+		}
+	}
+
+	@Benchmark
+	public Object tableLookup(Tables tables, Requests requests) {
+		return tables.table.get(requests.nextLookup());
+	}
+
+	@Benchmark
+	public Object mapLookup(Tables tables, Requests requests) {
+		return tables.map.get(requests.nextLookup());
+	}
+
+	@Benchmark
+	public boolean tableRequest(Tables tables, Requests requests) {
+		long messageID = requests.next;
+		requests.next += MAX_THREADS;
+		tables.table.put(messageID, tables.observer);
+		Object observer = tables.table.get(messageID);
+		return tables.table.remove(messageID - requests.window * MAX_THREADS, observer);
+	}
+
+	@Benchmark
+	public boolean mapRequest(Tables tables, Requests requests) {
+		long messageID = requests.next;
+		requests.next += MAX_THREADS;
+		tables.map.put(messageID, tables.observer);
+		Object observer = tables.map.get(messageID);
+		return tables.map.remove(messageID - requests.window * MAX_THREADS, observer);
+	}
+}
@@ -0,0 +1,82 @@
+package com.ibm.mqttv3.binding;
+
+import java.io.UnsupportedEncodingException;
+
+import com.ibm.mqttv3.binding.MQTT.Operation;
+
+/**
+ * The split based topic and payload parsing that {@link Request} used before
+ * the single pass parser, kept as the baseline of the parser benchmarks.
+ */
+public class LegacyRequestParser {
+
+	String organizationID;
+	String endpointID;
+	String applicationID;
+	Operation operation;
+	String resource;
+	String objectId;
+	String objectIdInstance;
+	String resourceId;
+
+	long messageID;
+	String requestorEndpointID;
+	String requestorAppID;
+	StringBuilder content = new StringBuilder();
+
+	public LegacyRequestParser(String topic, byte[] payload) {
+		parseTopic(topic);
+		parseContent(payload);
+	}
+
+	private void parseContent(byte[] payload) {
+		try {
+			String content = new String(payload, "UTF-8");
+			String[] parms = content.split(" ", 4);
+
+			messageID = Long.parseLong(parms[0]);
+			requestorEndpointID = parms[1];
+			requestorAppID = parms[2];
+			if(parms.length >=4)
+				this.content = this.content.append(parms[3]);
+
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void parseTopic(String topic) {
+		String[] levels = topic.split("/");
+
+		this.organizationID = levels[2];
+		this.endpointID = levels[3];
+		this.applicationID = levels[4];
+		this.operation = Operation.valueOf(levels[5]);
+
+		int length = levels[0].length() + levels[1].length() +
+					 levels[2].length() + levels[3].length() +
+					 levels[4].length() + levels[5].length() + 6;
+
+		resource = topic.substring(length);
+
+		String[] resources = resource.split("/");
+
+		if(resources == null || resources.length == 0) {
+			return;
+		}
+
+		objectId = resources[0];
+
+		if(resources.length > 1) {
+			objectIdInstance = resources[1];
+		}
+
+		if(resources.length > 2) {
+			resourceId = resources[2];
+		}
+	}
+
+	public String getPayloadText() {
+		return content.toString();
+	}
+}
@@ -0,0 +1,105 @@
+package com.ibm.mqttv3.binding;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the publish throughput of a notification sized message at each
+ * QoS, one acknowledgement at a time and with the in-flight window.
+ *
+ * Needs a broker, by default a local one on localhost:1883 (e.g. mosquitto),
+ * which can be changed with -Dbench.broker.host and -Dbench.broker.port.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QosPublishBenchmark {
+
+	private static final int BATCH = 100;
+
+	@Param({ "0", "1", "2" })
+	public int qos;
+
+	private MQTTWrapper syncClient;
+	private MQTTWrapper asyncClient;
+	private String topic;
+	private byte[] payload;
+	private final PublishFuture[] futures = new PublishFuture[BATCH];
+
+	@Setup(Level.Trial)
+	public void setup() {
+		InetSocketAddress broker = new InetSocketAddress(
+				System.getProperty("bench.broker.host", "localhost"),
+				Integer.getInteger("bench.broker.port", 1883));
+		topic = "LWM/R/bench/56783/leshan-server/";
+		payload = "2.05 21.5".getBytes(StandardCharsets.UTF_8);
+
+		syncClient = start(broker, "bench-sync-" + qos, 0);
+		asyncClient = start(broker, "bench-async-" + qos, MQTTWrapper.PAHO_MAX_INFLIGHT);
+	}
+
+	private static MQTTWrapper start(InetSocketAddress broker, String clientID, int maxInflight) {
+		final MQTTWrapper client = new MQTTWrapper(broker, clientID);
+		client.setCallBack(new MqttCallback() {
+			@Override
+			public void messageArrived(String topic, MqttMessage message) {
+			}
+
+			@Override
+			public void deliveryComplete(IMqttDeliveryToken token) {
+				client.deliveryComplete(token);
+			}
+
+			@Override
+			public void connectionLost(Throwable cause) {
+			}
+		});
+		client.start();
+		client.setMaxInflight(maxInflight);
+		return client;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		syncClient.stop();
+		asyncClient.stop();
+	}
+
+	@Benchmark
+	public void publishSync() {
+		syncClient.publish(topic, payload, qos);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void publishWindowed() throws Exception {
+		for (int i = 0; i < BATCH; i++) {
+			futures[i] = asyncClient.publishAsync(topic, payload, qos);
+		}
+		for (PublishFuture future : futures) {
+			future.get();
+		}
+	}
+}
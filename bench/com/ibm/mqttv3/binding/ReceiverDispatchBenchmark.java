@@ -0,0 +1,93 @@
+package com.ibm.mqttv3.binding;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the notifications of observed devices going through the
+ * {@link MqttV3MessageReceiver}, from messageArrived to the observer: the
+ * correlation by message-id, the lane of the device and the parsing of the
+ * response on the dispatcher.
+ *
+ * Each invocation hands a batch of notifications, spread over the devices,
+ * to the receiver and waits until the observers got all of them. No broker
+ * is needed, the receiver is not connected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiverDispatchBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({ "1", "100" })
+	public int devices;
+
+	@Param({ "TEXT", "BINARY" })
+	public Framing framing;
+
+	private MqttV3MessageReceiver receiver;
+	private String[] topics;
+	private MqttMessage message;
+	private final AtomicLong notified = new AtomicLong();
+
+	@Setup
+	public void setup() {
+		MQTTWrapper mqttClient = new MQTTWrapper(new InetSocketAddress("localhost", 1883),
+				BenchFixtures.SERVER_ENDPOINT);
+		receiver = new MqttV3MessageReceiver(mqttClient);
+		message = new MqttMessage(BenchFixtures.content(BenchFixtures.READ_RESPONSE, framing));
+
+		topics = new String[devices];
+		for (int i = 0; i < devices; i++) {
+			// an observation of the temperature of each device
+			Request observe = Request.newGet();
+			observe.setEndPointId(BenchFixtures.CLIENT_ENDPOINT + i);
+			observe.setPayloadContent(MQTT.GET.OBSERVE.toString());
+			receiver.addRequest(observe.getMessageID(), new AbstractRequestObserver(observe) {
+				@Override
+				public void onResponse(Response mqttResponse) {
+					notified.incrementAndGet();
+				}
+
+				@Override
+				public void onError(Response mqttResponse) {
+					notified.incrementAndGet();
+				}
+			});
+			topics[i] = Request.RESPONSE_TOPIC_STARTER + "/" + BenchFixtures.ORGANIZATION + "/"
+					+ BenchFixtures.SERVER_ENDPOINT + "/" + BenchFixtures.SERVER_APPLICATION + "/"
+					+ observe.getMessageID();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void dispatch() throws Exception {
+		long expected = notified.get() + BATCH;
+		for (int i = 0; i < BATCH; i++) {
+			receiver.messageArrived(topics[i % devices], message);
+		}
+		while (notified.get() < expected) {
+			Thread.yield();
+		}
+	}
+}
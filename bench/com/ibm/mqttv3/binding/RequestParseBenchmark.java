@@ -0,0 +1,84 @@
+package com.ibm.mqttv3.binding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the single pass {@link Request} parser with the split based
+ * parser it replaced, for the inbound messages a client and a server see
+ * most often.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParseBenchmark {
+
+	@Param({ "read", "write", "register" })
+	public String kind;
+
+	private String topic;
+	private byte[] payload;
+	private MqttMessage message;
+
+	@Setup
+	public void setup() {
+		String content;
+		if("read".equals(kind)) {
+			topic = "LWM/S/eclipse/10/mqtt-client/GET/3303/0/5700";
+			content = "8812 56783 leshan-server 1";
+		} else if("write".equals(kind)) {
+			topic = "LWM/S/eclipse/10/mqtt-client/PUT/3303/0/5603";
+			content = "8813 56783 leshan-server 1 21.5";
+		} else {
+			topic = "LWM/S/eclipse/56783/leshan-server/POST/rd";
+			content = "17 10 mqtt-client ep=10&lt=86400 </1/0>,</3/0>,</3303/0>";
+		}
+		payload = content.getBytes(StandardCharsets.UTF_8);
+		message = new MqttMessage(payload);
+	}
+
+	@Benchmark
+	public void legacyParse(Blackhole bh) {
+		LegacyRequestParser request = new LegacyRequestParser(topic, payload);
+		bh.consume(request.objectId);
+		bh.consume(request.operation);
+		bh.consume(request.messageID);
+	}
+
+	@Benchmark
+	public void singlePassParse(Blackhole bh) {
+		Request request = new Request(topic, message);
+		bh.consume(request.getObjectId());
+		bh.consume(request.getOperation());
+		bh.consume(request.getMessageID());
+	}
+
+	@Benchmark
+	public void legacyParseWithContent(Blackhole bh) {
+		LegacyRequestParser request = new LegacyRequestParser(topic, payload);
+		bh.consume(request.getPayloadText());
+	}
+
+	@Benchmark
+	public void singlePassParseWithContent(Blackhole bh) {
+		Request request = new Request(topic, message);
+		bh.consume(request.getPayloadText());
+	}
+}
@@ -0,0 +1,67 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the topic and the payload of an outbound request, built once per
+ * publish, for a read of a resource and a write of a value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestTopicBenchmark {
+
+	@Param({ "read", "write" })
+	public String kind;
+
+	@Param({ "TEXT", "BINARY" })
+	public Framing framing;
+
+	private Request request;
+
+	@Setup
+	public void setup() {
+		if("read".equals(kind)) {
+			request = Request.newGet();
+			request.setPayloadContent(MQTT.GET.READ.toString());
+		} else {
+			request = Request.newPut();
+			request.setPayloadContent(MQTT.PUT.WRITE.toString());
+			request.addPayloadContent(BenchFixtures.bytes("21.5"));
+		}
+		request.setOrganizationID(BenchFixtures.ORGANIZATION);
+		request.setEndPointId(BenchFixtures.CLIENT_ENDPOINT);
+		request.setApplicationID(BenchFixtures.CLIENT_APPLICATION);
+		request.setRequestorEndpointID(BenchFixtures.SERVER_ENDPOINT);
+		request.setRequestorApplicationID(BenchFixtures.SERVER_APPLICATION);
+		request.setFraming(framing);
+		request.addURIPath("3303");
+		request.addURIPath("0");
+		request.addURIPath("5700");
+	}
+
+	@Benchmark
+	public String topic() {
+		return request.getTopic();
+	}
+
+	@Benchmark
+	public byte[] payload() {
+		return request.getMessageAsBytes();
+	}
+}
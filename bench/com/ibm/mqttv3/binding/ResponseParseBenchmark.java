@@ -0,0 +1,64 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures what a server does with each response of a device before it is
+ * dispatched: the message-id out of the topic, then the code and payload
+ * out of the message, in both framings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParseBenchmark {
+
+	@Param({ "TEXT", "BINARY" })
+	public Framing framing;
+
+	@Param({ "value", "instance" })
+	public String content;
+
+	private MqttMessage message;
+
+	@Setup
+	public void setup() {
+		String payload = "value".equals(content) ? BenchFixtures.READ_RESPONSE : BenchFixtures.INSTANCE_RESPONSE;
+		message = new MqttMessage(BenchFixtures.content(payload, framing));
+	}
+
+	@Benchmark
+	public long parseMessageID() {
+		return Response.parseMessageID(BenchFixtures.RESPONSE_TOPIC);
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		Response response = new Response(message);
+		bh.consume(response.getCodeAsInt());
+		bh.consume(response.getPayloadBuffer());
+	}
+
+	@Benchmark
+	public void parseWithText(Blackhole bh) {
+		Response response = new Response(message);
+		bh.consume(response.getCodeAsInt());
+		bh.consume(response.getPayloadText());
+	}
+}
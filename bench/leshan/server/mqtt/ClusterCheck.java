@@ -0,0 +1,266 @@
+package leshan.server.mqtt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.ResponseCode;
+import leshan.server.client.Client;
+import leshan.server.request.ReadRequest;
+import leshan.core.response.ValueResponse;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import com.ibm.lwm2m.client.LwM2MClient;
+import com.ibm.lwm2m.client.VirtualDeviceRuntime;
+import com.ibm.lwm2m.objects.TemperatureSensorObject;
+import com.ibm.mqttv3.binding.BenchFixtures;
+import com.ibm.mqttv3.binding.Framing;
+import com.ibm.mqttv3.binding.LoopbackBroker;
+import com.ibm.mqttv3.binding.MqttTransport;
+import com.ibm.mqttv3.binding.MqttTransportFactory;
+import com.ibm.mqttv3.binding.Request;
+
+/**
+ * Checks a cluster of servers sharing the load of one server endpoint, with
+ * the nodes and a fleet of virtual devices on a {@link LoopbackBroker} in one
+ * JVM:
+ * <ul>
+ * <li>the registrations of the devices are split over the nodes</li>
+ * <li>the registries of the nodes converge to the same clients</li>
+ * <li>the responses to the requests of a node reach that node only</li>
+ * <li>a node joining later replays the registry</li>
+ * <li>a device deregistering leaves the registries of all nodes</li>
+ * </ul>
+ * Exits with status 1 if a check fails, run with: ant check-cluster
+ */
+public final class ClusterCheck {
+
+	private static final int DEVICES = 200;
+	private static final int READS = 50;
+	private static final long CONVERGENCE_TIMEOUT_MILLIS = 10000;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		LoopbackBroker broker = new LoopbackBroker("cluster");
+		CountingTransports transports = new CountingTransports(broker);
+		LeshanServer n1 = node(transports, "n1");
+		LeshanServer n2 = node(transports, "n2");
+
+		VirtualDeviceRuntime runtime = new VirtualDeviceRuntime(broker, "devices", 4);
+		runtime.start();
+		for (int i = 0; i < DEVICES; i++) {
+			LwM2MClient client = runtime.addDevice(BenchFixtures.ORGANIZATION, BenchFixtures.CLIENT_ENDPOINT + i,
+					BenchFixtures.CLIENT_APPLICATION, BenchFixtures.SERVER_ENDPOINT,
+					BenchFixtures.SERVER_APPLICATION, Framing.TEXT);
+			TemperatureSensorObject.createObject(client);
+			TemperatureSensorObject.createObjectInstance(client);
+		}
+		check("devices registered", runtime.registerAll(16) == DEVICES);
+
+		long requests1 = transports.count(n1, Request.REQUEST_TOPIC_STARTER);
+		long requests2 = transports.count(n2, Request.REQUEST_TOPIC_STARTER);
+		System.out.println("registrations handled by n1 " + requests1 + ", by n2 " + requests2);
+		check("every registration handled by one node", requests1 + requests2 == DEVICES);
+		check("registrations split over the nodes", requests1 > 0 && requests2 > 0);
+
+		check("registries converged", await(DEVICES, n1, n2) && sameRegistrations(n1, n2));
+
+		for (LeshanServer sender : new LeshanServer[] { n1, n2 }) {
+			LeshanServer other = sender == n1 ? n2 : n1;
+			long sent = transports.count(sender, Request.RESPONSE_TOPIC_STARTER);
+			long notSent = transports.count(other, Request.RESPONSE_TOPIC_STARTER);
+			int content = 0;
+			for (int i = 0; i < READS; i++) {
+				Client client = sender.getClientRegistry().get(BenchFixtures.CLIENT_ENDPOINT + i);
+				ValueResponse response = sender.send(new ReadRequest(client, 3303, 0, 5700));
+				if (response != null && response.getCode() == ResponseCode.CONTENT) {
+					content++;
+				}
+			}
+			check("reads of " + sender.getNodeID() + " answered", content == READS);
+			check("responses routed to " + sender.getNodeID(),
+					transports.count(sender, Request.RESPONSE_TOPIC_STARTER) - sent == READS
+					&& transports.count(other, Request.RESPONSE_TOPIC_STARTER) == notSent);
+		}
+
+		LeshanServer n3 = node(transports, "n3");
+		check("registry replayed by a late node", await(DEVICES, n3) && sameRegistrations(n1, n3));
+
+		runtime.removeDevice(BenchFixtures.CLIENT_ENDPOINT + 0);
+		check("deregistration replicated", await(DEVICES - 1, n1, n2, n3)
+				&& n3.getClientRegistry().get(BenchFixtures.CLIENT_ENDPOINT + 0) == null);
+
+		runtime.stop();
+		n1.destroy();
+		n2.destroy();
+		n3.destroy();
+		System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static LeshanServer node(MqttTransportFactory transports, String nodeID) {
+		LeshanServer node = new LeshanServer(transports, null, null, BenchFixtures.SERVER_ENDPOINT,
+				BenchFixtures.SERVER_APPLICATION, nodeID);
+		node.start();
+		return node;
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "ok     " : "FAILED ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	/*
+	 * Waits until the registry of each node holds the given number of clients
+	 */
+	private static boolean await(int clients, LeshanServer... nodes) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONVERGENCE_TIMEOUT_MILLIS);
+		for (LeshanServer node : nodes) {
+			while (node.getClientRegistry().allClients().size() != clients) {
+				if (System.nanoTime() > deadline) {
+					return false;
+				}
+				Thread.sleep(10);
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameRegistrations(LeshanServer node, LeshanServer other) {
+		for (Client client : node.getClientRegistry().allClients()) {
+			Client replica = other.getClientRegistry().get(client.getEndpoint());
+			if (replica == null || !replica.getRegistrationId().equals(client.getRegistrationId())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts per connection the messages arriving under a topic level, e.g.
+	 * the requests and the responses a node receives
+	 */
+	private static final class CountingTransports implements MqttTransportFactory {
+
+		private final MqttTransportFactory delegate;
+		private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+		private CountingTransports(MqttTransportFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public MqttTransport create(String clientID) {
+			return new CountingTransport(delegate.create(clientID), clientID);
+		}
+
+		/*
+		 * Returns the messages of the topic level received by the connection
+		 * of the node, not the one of its registry
+		 */
+		private long count(LeshanServer node, String topicStarter) {
+			AtomicLong count = counts.get(BenchFixtures.SERVER_ENDPOINT + "-" + node.getNodeID() + " " + topicStarter);
+			return count == null ? 0 : count.get();
+		}
+
+		private void arrived(String clientID, String topic) {
+			int level = topic.indexOf('/', topic.indexOf('/') + 1);
+			String key = clientID + " " + (level < 0 ? topic : topic.substring(0, level));
+			AtomicLong count = counts.get(key);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = counts.putIfAbsent(key, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+		}
+
+		private final class CountingTransport implements MqttTransport {
+
+			private final MqttTransport transport;
+			private final String clientID;
+
+			private CountingTransport(MqttTransport transport, String clientID) {
+				this.transport = transport;
+				this.clientID = clientID;
+			}
+
+			@Override
+			public void connect() throws MqttException {
+				transport.connect();
+			}
+
+			@Override
+			public void disconnect() throws MqttException {
+				transport.disconnect();
+			}
+
+			@Override
+			public void close() throws MqttException {
+				transport.close();
+			}
+
+			@Override
+			public boolean isConnected() {
+				return transport.isConnected();
+			}
+
+			@Override
+			public void setCallback(final MqttCallback callback) {
+				transport.setCallback(new MqttCallback() {
+					@Override
+					public void messageArrived(String topic, MqttMessage message) throws Exception {
+						arrived(clientID, topic);
+						callback.messageArrived(topic, message);
+					}
+
+					@Override
+					public void deliveryComplete(IMqttDeliveryToken token) {
+						callback.deliveryComplete(token);
+					}
+
+					@Override
+					public void connectionLost(Throwable cause) {
+						callback.connectionLost(cause);
+					}
+				});
+			}
+
+			@Override
+			public void subscribe(String[] topicFilters, int[] qos) throws MqttException {
+				transport.subscribe(topicFilters, qos);
+			}
+
+			@Override
+			public void unsubscribe(String topicFilter) throws MqttException {
+				transport.unsubscribe(topicFilter);
+			}
+
+			@Override
+			public void publish(String topic, MqttMessage message) throws MqttException {
+				transport.publish(topic, message);
+			}
+
+			@Override
+			public void publish(String topic, MqttMessage message, Object userContext,
+					IMqttActionListener listener) throws MqttException {
+				transport.publish(topic, message, userContext, listener);
+			}
+
+			@Override
+			public String getServerURI() {
+				return transport.getServerURI();
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package leshan.server.mqtt.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import leshan.LinkObject;
+import leshan.server.client.Client;
+import leshan.server.request.LwM2mRequest;
+import leshan.server.request.ObserveRequest;
+import leshan.server.request.ReadRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.mqttv3.binding.BenchFixtures;
+import com.ibm.mqttv3.binding.Request;
+
+/**
+ * Measures the translation of a LwM2M request into the MQTT request the
+ * server publishes, with and without building its topic and payload, for a
+ * client registered with and without a root path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQTTRequestBuilderBenchmark {
+
+	@Param({ "read", "observe" })
+	public String kind;
+
+	@Param({ "/", "/lwm2m" })
+	public String rootPath;
+
+	private LwM2mRequest<?> request;
+
+	@Setup
+	public void setup() {
+		String links = "</1/0>,</3/0>,</3303/0>";
+		if(!"/".equals(rootPath)) {
+			links = "<" + rootPath + ">;rt=\"oma.lwm2m\"," + links;
+		}
+		Client client = new Client("bench", BenchFixtures.CLIENT_ENDPOINT, null, 0, "1.0", 86400L, null, null,
+				LinkObject.parse(BenchFixtures.bytes(links)), null);
+		client.setOrganizationID(BenchFixtures.ORGANIZATION);
+		client.setApplicationID(BenchFixtures.CLIENT_APPLICATION);
+
+		if("read".equals(kind)) {
+			request = new ReadRequest(client, 3303, 0, 5700);
+		} else {
+			request = new ObserveRequest(client, 3303, 0, 5700);
+		}
+	}
+
+	@Benchmark
+	public Request build() {
+		MQTTRequestBuilder builder = new MQTTRequestBuilder(BenchFixtures.SERVER_ENDPOINT,
+				BenchFixtures.SERVER_APPLICATION);
+		request.accept(builder);
+		return builder.getRequest();
+	}
+
+	@Benchmark
+	public void buildAndFrame(Blackhole bh) {
+		Request mqttRequest = build();
+		bh.consume(mqttRequest.getTopic());
+		bh.consume(mqttRequest.getMessageAsBytes());
+	}
+}
@@ -0,0 +1,40 @@
+package com.ibm.lwm2m;
+
+/**
+ * Decides whether a new numeric value of an observed resource is worth a
+ * notification, according to the gt, lt and st attributes in effect.
+ *
+ * Without any of them every change is notified. Otherwise a value is
+ * notified when it crosses the greater than or the less than threshold,
+ * or when it differs from the last notified value by at least the step.
+ * The periods are left to {@link ObserveNotify}.
+ */
+public final class AttributeEvaluator {
+
+    private AttributeEvaluator() {
+    }
+
+    /**
+     * @param spec the attributes in effect
+     * @param previous the last notified value
+     * @param current the new value
+     */
+    public static boolean shouldNotify(ObserveSpec spec, double previous, double current) {
+        if (current == previous) {
+            return false;
+        }
+        if (!spec.hasThresholds()) {
+            return true;
+        }
+        Float gt = spec.getGreaterThan();
+        if (gt != null && (previous > gt) != (current > gt)) {
+            return true;
+        }
+        Float lt = spec.getLessThan();
+        if (lt != null && (previous < lt) != (current < lt)) {
+            return true;
+        }
+        Float st = spec.getStep();
+        return st != null && Math.abs(current - previous) >= st;
+    }
+}
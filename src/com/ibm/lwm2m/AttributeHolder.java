@@ -0,0 +1,13 @@
+package com.ibm.lwm2m;
+
+/**
+ * An object or object instance holding write attributes, which the
+ * observations of the resources below it inherit
+ */
+public interface AttributeHolder {
+
+    /**
+     * Returns the attributes written to this node, or null
+     */
+    public ObserveSpec getObserveSpec();
+}
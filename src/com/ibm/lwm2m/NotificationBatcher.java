@@ -0,0 +1,187 @@
+package com.ibm.lwm2m;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mqttv3.binding.MQTTExchange;
+import com.ibm.mqttv3.binding.MQTTWrapper;
+import com.ibm.mqttv3.binding.NotificationBatch;
+import com.ibm.mqttv3.binding.QosPolicy.MessageKind;
+import com.ibm.mqttv3.binding.Request;
+import com.ibm.mqttv3.binding.ResponseCode;
+
+/**
+ * Collects the notifications sent to a server within a short window and
+ * publishes them as one {@link NotificationBatch}.
+ *
+ * There is one batcher per device, server and connection, the devices of
+ * a {@link com.ibm.lwm2m.client.VirtualDeviceRuntime} share a connection
+ * but each batch carries the endpoint of one device. The first
+ * notification of a window schedules the flush, a batch which reached the
+ * max size is flushed right away. With a window of 0 every notification
+ * is sent on its own.
+ */
+public final class NotificationBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationBatcher.class);
+
+    public static final int DEFAULT_MAX_RECORDS = 64;
+
+    private static final ConcurrentHashMap<Key, NotificationBatcher> batchers =
+            new ConcurrentHashMap<Key, NotificationBatcher>();
+
+    private static volatile long windowNanos = 0;
+    private static volatile int maxRecords = DEFAULT_MAX_RECORDS;
+
+    private final String topic;
+    private final String endpointID;
+    private final MQTTWrapper mqttClient;
+
+    private NotificationBatch batch;
+
+    private NotificationBatcher(String topic, String endpointID, MQTTWrapper mqttClient) {
+        this.topic = topic;
+        this.endpointID = endpointID;
+        this.mqttClient = mqttClient;
+    }
+
+    /**
+     * Sets the window in which notifications are collected, 0 disables batching
+     */
+    public static void setWindow(long window, TimeUnit unit) {
+        windowNanos = unit.toNanos(window);
+    }
+
+    public static void setMaxRecords(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0: " + max);
+        }
+        maxRecords = max;
+    }
+
+    public static boolean isEnabled() {
+        return windowNanos > 0;
+    }
+
+    /**
+     * Sends the notification in the batch of the server which observes
+     */
+    public static void notify(MQTTExchange exchange, byte[] value) {
+        if (!isEnabled()) {
+            exchange.respond(ResponseCode.CHANGED, value);
+            return;
+        }
+        Request request = exchange.getRequest();
+        String topic = Request.RESPONSE_TOPIC_STARTER + "/" +
+                request.getOrganizationID() + "/" +
+                request.getRequestorEndpointID() + "/" +
+                request.getRequestorApplicationID() + "/" +
+                NotificationBatch.TOPIC_LEVEL;
+        Key key = new Key(exchange.getMqttClient(), request.getEndpointId(), topic);
+        NotificationBatcher batcher = batchers.get(key);
+        if (batcher == null) {
+            NotificationBatcher created = new NotificationBatcher(topic, request.getEndpointId(),
+                    exchange.getMqttClient());
+            batcher = batchers.putIfAbsent(key, created);
+            if (batcher == null) {
+                batcher = created;
+            }
+        }
+        batcher.add(new NotificationBatch.Record(request.getResourcePath(), request.getMessageID(), value));
+    }
+
+    /**
+     * Removes the batchers of a device detached from the connection, the
+     * notifications not sent yet are dropped
+     */
+    public static void remove(MQTTWrapper mqttClient, String endpointID) {
+        for (Iterator<Map.Entry<Key, NotificationBatcher>> it = batchers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, NotificationBatcher> entry = it.next();
+            if (entry.getKey().mqttClient == mqttClient && entry.getKey().endpointID.equals(endpointID)) {
+                it.remove();
+                synchronized (entry.getValue()) {
+                    entry.getValue().batch = null;
+                }
+            }
+        }
+    }
+
+    private void add(NotificationBatch.Record record) {
+        NotificationBatch full = null;
+        synchronized (this) {
+            if (batch == null) {
+                batch = new NotificationBatch(endpointID);
+                ObservationScheduler.getInstance().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, windowNanos);
+            }
+            batch.add(record);
+            if (batch.size() >= maxRecords) {
+                full = batch;
+                batch = null;
+            }
+        }
+        if (full != null) {
+            publish(full);
+        }
+    }
+
+    /*
+     * Sends the batch of the window, if it was not flushed for its size already
+     */
+    private void flush() {
+        NotificationBatch pending;
+        synchronized (this) {
+            pending = batch;
+            batch = null;
+        }
+        if (pending != null) {
+            publish(pending);
+        }
+    }
+
+    private void publish(NotificationBatch batch) {
+        LOG.debug("Sending " + batch.size() + " notifications to " + topic);
+        mqttClient.publish(topic, batch.encode(),
+                mqttClient.getQosPolicy().getQos(MessageKind.NOTIFICATION));
+    }
+
+    /*
+     * The connection is compared by identity, two connections may use the
+     * same client id one after the other
+     */
+    private static final class Key {
+        private final MQTTWrapper mqttClient;
+        private final String endpointID;
+        private final String topic;
+
+        private Key(MQTTWrapper mqttClient, String endpointID, String topic) {
+            this.mqttClient = mqttClient;
+            this.endpointID = endpointID;
+            this.topic = topic;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(mqttClient) * 31 + endpointID.hashCode()) * 31 + topic.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mqttClient == other.mqttClient && endpointID.equals(other.endpointID)
+                    && topic.equals(other.topic);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ibm.lwm2m;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.mqttv3.binding.HashedWheelTimer;
+import com.ibm.mqttv3.binding.HashedWheelTimer.Timeout;
+import com.ibm.mqttv3.binding.HashedWheelTimer.TimerTask;
+
+/**
+ * Holds the next deadline of every observation of the client in one timing
+ * wheel.
+ *
+ * An observation has exactly one pending deadline, either the end of its
+ * minimum period when a change is waiting to be sent, or the end of its
+ * maximum period. The wheel only hands an expired deadline over to the
+ * notifier threads, since sending a notification may block on the broker.
+ */
+public final class ObservationScheduler {
+
+    /* pmin and pmax are in seconds, a tick of 100ms is precise enough */
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 1024;
+
+    private static final ObservationScheduler INSTANCE = new ObservationScheduler();
+
+    private final HashedWheelTimer timer;
+    private final ExecutorService notifier;
+
+    private ObservationScheduler() {
+        timer = new HashedWheelTimer("observation-timer", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        notifier = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "observation-notifier-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static ObservationScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the task to run on a notifier thread after the given delay
+     *
+     * @return the deadline, to be cancelled when it is replaced
+     */
+    public Timeout schedule(final Runnable task, long delayNanos) {
+        return timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                notifier.execute(task);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of pending deadlines, at most one per observation
+     */
+    public long getPendingCount() {
+        return timer.pendingTimeouts();
+    }
+}
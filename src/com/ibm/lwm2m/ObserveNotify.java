@@ -33,30 +33,46 @@ package com.ibm.lwm2m;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Iterator;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.ibm.lwm2m.client.LocalResource;
-import com.ibm.lwm2m.client.LwM2MClient;
+import com.ibm.lwm2m.client.NumericResource;
 import com.ibm.lwm2m.objects.LwM2MServerObject;
+import com.ibm.mqttv3.binding.HashedWheelTimer.Timeout;
 import com.ibm.mqttv3.binding.MQTTExchange;
 import com.ibm.mqttv3.binding.Resource;
-import com.ibm.mqttv3.binding.ResponseCode;
 
+/**
+ * Sends the notifications of one observation, honoring its write attributes.
+ *
+ * A change is sent right away unless the last notification is younger than
+ * pmin, then it is sent when pmin has elapsed. A numeric value is sent only
+ * if it passes the gt, lt and st attributes, see {@link AttributeEvaluator}.
+ * Without a change the value is sent again when pmax has elapsed. Attributes
+ * not written to the resource are inherited from its object instance, its
+ * object and the defaults of the server.
+ *
+ * The observation keeps exactly one deadline in the
+ * {@link ObservationScheduler}, all times are monotonic.
+ */
 public class ObserveNotify implements Runnable {
 
-    private static final long SECONDS_TO_MILLIS = 1000;
+    private static final long SECONDS_TO_NANOS = TimeUnit.SECONDS.toNanos(1);
 
+    private static final ObservationScheduler scheduler = ObservationScheduler.getInstance();
+
+    /* attributes written to the resource and the defaults of the server */
     private ObserveSpec observeSpec;
+    private ObserveSpec serverSpec;
     private MQTTExchange exchange;
     private LocalResource node;
     private byte[] previousValue;
-    private Date previousTime;
-    private final static ScheduledExecutorService service = 
-    		Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+    private double previousNumericValue;
+    private long previousTime;
+    /* a change arrived within pmin and waits for the deadline */
+    private boolean changePending = false;
+    private Timeout deadline;
     private boolean cancel = false; 
     
     public ObserveNotify(final MQTTExchange exchange, 
@@ -65,13 +81,13 @@ public class ObserveNotify implements Runnable {
     					 String value) {
     	this.exchange = exchange;
         this.node = node;
+        this.observeSpec = observeSpec;
         updatePrevious(value.getBytes());
         
-        // Take the default observespec from the server object
-        if(null != observeSpec) {
-        	this.observeSpec = observeSpec;
-        } else {
-        	Resource resource = LwM2MClient.getRootResource().getChild("1");
+        // Take the default observespec from the server object of the device
+        // the resource belongs to
+        Resource resource = getRoot((Resource) node).getChild("1");
+        if(null != resource) {
         	String id = exchange.getRequest().getRequestorEndpointID();
         	Collection<Resource> childrens = resource.getChildren();
         	Iterator<Resource> itr = childrens.iterator();
@@ -84,46 +100,130 @@ public class ObserveNotify implements Runnable {
         			break;
         		}
         	}
-        	this.observeSpec = serverObj.getObserveSpec();
+        	if(null != serverObj) {
+        		this.serverSpec = serverObj.getObserveSpec();
+        	}
         }
     }
 
-   
+    private static Resource getRoot(Resource resource) {
+        while (resource.getParent() != null) {
+            resource = resource.getParent();
+        }
+        return resource;
+    }
 
     private void updatePrevious(byte[] value) {
         previousValue = value;
-        previousTime = new Date();
-    }
-
-    private boolean shouldNotify(byte[] value) {
-        final long diff = getTimeDiff();
-        final Integer pmax = observeSpec.getMaxPeriod();
-        if (pmax != null && diff > pmax * SECONDS_TO_MILLIS) {
-            return true;
+        if (node instanceof NumericResource) {
+            previousNumericValue = ((NumericResource) node).getNumericValue();
         }
-        return !Arrays.equals(value, previousValue);
+        previousTime = System.nanoTime();
     }
 
     private void sendNotify(byte[] value) {
         updatePrevious(value);
-        exchange.respond(ResponseCode.CHANGED, value);
+        changePending = false;
+        NotificationBatcher.notify(exchange, value);
+    }
+
+    /*
+     * Resolves the attributes in effect, those of the object instance and
+     * object may have been written since the last evaluation
+     */
+    private ObserveSpec getEffectiveSpec() {
+        Resource instance = ((Resource) node).getParent();
+        Resource object = instance == null ? null : instance.getParent();
+        return ObserveSpec.inherit(observeSpec, specOf(instance), specOf(object), serverSpec);
+    }
+
+    private static ObserveSpec specOf(Resource resource) {
+        return resource instanceof AttributeHolder ? ((AttributeHolder) resource).getObserveSpec() : null;
     }
 
-    public void setObserveSpec(final ObserveSpec observeSpec) {
+    private boolean isNotifiable(ObserveSpec spec, byte[] value) {
+        if (node instanceof NumericResource) {
+            return AttributeEvaluator.shouldNotify(spec, previousNumericValue,
+                    ((NumericResource) node).getNumericValue());
+        }
+        return !Arrays.equals(value, previousValue);
+    }
+
+    /**
+     * Sets the attributes written to the resource, the pending deadline is
+     * moved accordingly
+     */
+    public synchronized void setObserveSpec(final ObserveSpec observeSpec) {
+        if (this.observeSpec == observeSpec) {
+            return;
+        }
         this.observeSpec = observeSpec;
+        scheduleNext(getEffectiveSpec());
     }
 
-    public void scheduleNext() {
-        if (observeSpec.getMaxPeriod() != null) {
-            long diff = getTimeDiff();
-            service.schedule(this, observeSpec.getMaxPeriod() * SECONDS_TO_MILLIS - diff, TimeUnit.MILLISECONDS);
+    /**
+     * Starts the observation, the first value was sent with the response
+     * to the observe request
+     */
+    public synchronized void start() {
+        scheduleNext(getEffectiveSpec());
+    }
+
+    /**
+     * Called when the value of the observed resource was set, sends the
+     * notification now or when pmin has elapsed
+     */
+    public synchronized void valueChanged() {
+        if (cancel) {
+            return;
+        }
+        ObserveSpec spec = getEffectiveSpec();
+        byte[] value = node.getValue().getBytes();
+        if (!isNotifiable(spec, value)) {
+            return;
+        }
+        if (System.nanoTime() - previousTime >= periodNanos(spec.getMinPeriod())) {
+            sendNotify(value);
+        } else if (changePending) {
+            // the pmin deadline is set already
+            return;
+        } else {
+            changePending = true;
+        }
+        scheduleNext(spec);
+    }
+
+    /*
+     * Replaces the deadline by the end of pmin if a change is pending,
+     * otherwise by the end of pmax if there is one
+     */
+    private void scheduleNext(ObserveSpec spec) {
+        if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
         }
+        if (cancel) {
+            return;
+        }
+        long period;
+        if (changePending) {
+            period = periodNanos(spec.getMinPeriod());
+        } else if (spec.getMaxPeriod() != null) {
+            period = periodNanos(spec.getMaxPeriod());
+        } else {
+            return;
+        }
+        long delay = previousTime + period - System.nanoTime();
+        deadline = scheduler.schedule(this, Math.max(delay, 0));
     }
 
-    private long getTimeDiff() {
-        return new Date().getTime() - previousTime.getTime();
+    private static long periodNanos(Integer seconds) {
+        return seconds == null ? 0 : seconds * SECONDS_TO_NANOS;
     }
 
+    /**
+     * Runs when the deadline expires
+     */
     @Override
     public synchronized void run() {
     	/*
@@ -133,18 +233,30 @@ public class ObserveNotify implements Runnable {
     		return;
     	}
     	
-        byte[] value = node.getValue().getBytes();
-        if (shouldNotify(value)) {
-            sendNotify(value);
-        }
-        scheduleNext();
+    	ObserveSpec spec = getEffectiveSpec();
+    	byte[] value = node.getValue().getBytes();
+    	long elapsed = System.nanoTime() - previousTime;
+    	if (changePending && elapsed >= periodNanos(spec.getMinPeriod())) {
+    		// the value may have moved back since the change
+    		if (isNotifiable(spec, value)) {
+    			sendNotify(value);
+    		} else {
+    			changePending = false;
+    		}
+    	}
+    	Integer pmax = spec.getMaxPeriod();
+    	if (pmax != null && System.nanoTime() - previousTime >= periodNanos(pmax)) {
+    		sendNotify(value);
+    	}
+    	scheduleNext(spec);
     }
 
-
-
-	public void cancel() {
+	public synchronized void cancel() {
 		this.cancel = true;
-		
+		if (deadline != null) {
+			deadline.cancel();
+			deadline = null;
+		}
 	}
 
 }
@@ -102,6 +102,44 @@ public final class ObserveSpec {
         return this.cancel;
     }
 
+    /**
+     * Returns the attributes in effect for an observation, each one taken
+     * from the first spec which sets it. The specs are given from the most
+     * specific to the least specific one, e.g. resource, object instance,
+     * object and the defaults of the server, null specs are skipped.
+     */
+    public static ObserveSpec inherit(ObserveSpec... specs) {
+        ObserveSpec result = new ObserveSpec();
+        for (ObserveSpec spec : specs) {
+            if (spec == null) {
+                continue;
+            }
+            if (result.minPeriod == null) {
+                result.minPeriod = spec.minPeriod;
+            }
+            if (result.maxPeriod == null) {
+                result.maxPeriod = spec.maxPeriod;
+            }
+            if (result.greaterThan == null) {
+                result.greaterThan = spec.greaterThan;
+            }
+            if (result.lessThan == null) {
+                result.lessThan = spec.lessThan;
+            }
+            if (result.step == null) {
+                result.step = spec.step;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if any of gt, lt or st is set
+     */
+    public boolean hasThresholds() {
+        return greaterThan != null || lessThan != null || step != null;
+    }
+
     public String[] toQueryParams() {
         List<String> queries = new LinkedList<>();
         if (this.cancel) {
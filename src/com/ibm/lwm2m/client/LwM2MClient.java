@@ -14,15 +14,31 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ibm.lwm2m.NotificationBatcher;
 import com.ibm.lwm2m.objects.LwM2MServerObject;
 import com.ibm.lwm2m.objects.TemperatureSensorObject;
 import com.ibm.mqttv3.binding.AbstractRequestObserver;
+import com.ibm.mqttv3.binding.Framing;
+import com.ibm.mqttv3.binding.MQTTResource;
 import com.ibm.mqttv3.binding.MQTTWrapper;
 import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+import com.ibm.mqttv3.binding.ObjectListHash;
+import com.ibm.mqttv3.binding.QosPolicy;
 import com.ibm.mqttv3.binding.Request;
 import com.ibm.mqttv3.binding.Resource;
+import com.ibm.mqttv3.binding.ResourceIndex;
 import com.ibm.mqttv3.binding.Response;
-
+import com.ibm.mqttv3.binding.ResponseCode;
+
+/**
+ * A LwM2M device over MQTT.
+ * 
+ * {@link #getClient()} returns the device of a JVM which runs one device
+ * only, it connects on its own as configured in mqtt.properties. The
+ * devices of a {@link VirtualDeviceRuntime} are created by the runtime
+ * instead, each one with a resource tree, a registration and observations
+ * of its own, on a connection it may share with other devices.
+ */
 public class LwM2MClient {
 	/*
 	 * Solicited interactions require a request/response message pattern to be
@@ -44,8 +60,8 @@ public class LwM2MClient {
 	public static final String RESPONSE_TOPIC_STARTER = "LWM/R";
 	public static final String REQUEST_TOPIC_STARTER = "LWM/S";
 	private static final int REQUEST_TIMEOUT_MILLIS = 5000;
+	private static final int MAX_REGISTER_ATTEMPTS = 5;
 
-	private static final byte QOS = 2;
 
 	private static final Logger LOG = LoggerFactory
 			.getLogger(LwM2MClient.class);
@@ -53,12 +69,19 @@ public class LwM2MClient {
 	private static LwM2MClient client = null;
 	private MQTTWrapper mqttClient;
 	private MqttV3MessageReceiver callback;
+	/* root of the resource tree of this device */
+	private MQTTResource root;
 	private String serverEndpointId;
 	private String serverApplicationId;
 	private String clientEndpointId;
 	private String clientApplicationId;
 	private String orgId;
 	private String registerLocationID;
+	/* hash of the object list the server holds, null if unknown */
+	private volatile String registeredObjectsHash;
+	private Framing framing = Framing.TEXT;
+	private int maxInflight = 0;
+	private QosPolicy qosPolicy = new QosPolicy();
 
 	private LwM2MClient() {
 		serverEndpointId = "10"; // assumed to come from server as part of
@@ -72,6 +95,20 @@ public class LwM2MClient {
 
 	}
 
+	/**
+	 * Creates a device which is started by a {@link VirtualDeviceRuntime}
+	 */
+	LwM2MClient(String orgId, String clientEndpointId,
+			String clientApplicationId, String serverEndpointId,
+			String serverApplicationId, Framing framing) {
+		this.orgId = orgId;
+		this.clientEndpointId = clientEndpointId;
+		this.clientApplicationId = clientApplicationId;
+		this.serverEndpointId = serverEndpointId;
+		this.serverApplicationId = serverApplicationId;
+		this.framing = framing;
+	}
+
 	void start() {
 		Properties properties = new Properties();
 
@@ -90,6 +127,15 @@ public class LwM2MClient {
 
 			orgId = properties.getProperty("ORGID");
 
+			// text (default) or binary framing of the messages
+			framing = Framing.fromConfig(properties.getProperty("FRAMING"));
+			maxInflight = Integer.parseInt(properties.getProperty(
+					"MQTT_MAX_INFLIGHT", "0").trim());
+			qosPolicy = QosPolicy.fromProperties(properties);
+			// notifications sent within the window go in one message
+			NotificationBatcher.setWindow(Long.parseLong(properties.getProperty(
+					"NOTIFICATION_BATCH_WINDOW", "0").trim()), TimeUnit.MILLISECONDS);
+
 			String hostname = properties.getProperty("MQTT_SERVER");
 			int portNumber = Integer.parseInt(properties
 					.getProperty("MQTT_PORT"));
@@ -98,6 +144,8 @@ public class LwM2MClient {
 			e.printStackTrace();
 		}
 		mqttClient = new MQTTWrapper(mqttBrokerAddress, clientEndpointId);
+		mqttClient.setMaxInflight(maxInflight);
+		mqttClient.setQosPolicy(qosPolicy);
 
 		// Register to MQTT server
 		mqttClient.start();
@@ -106,30 +154,63 @@ public class LwM2MClient {
 		callback = new MqttV3MessageReceiver(mqttClient);
 		mqttClient.setCallBack(callback);
 
+		// this device owns the connection and its root resource
+		attach(mqttClient, callback, mqttClient.getRoot(null));
+
+		// Create the temperature object that this client is representing
+		TemperatureSensorObject.createObject(this);
+
+		// Create the temp object instance and resources
+		TemperatureSensorObject.createObjectInstance(this);
+
+	}
+
+	/*
+	 * Subscribes to the requests and responses of this device on the given
+	 * connection and creates the server object in the given root
+	 */
+	void attach(MQTTWrapper mqttClient, MqttV3MessageReceiver callback,
+			MQTTResource root) {
+		this.mqttClient = mqttClient;
+		this.callback = callback;
+		this.root = root;
+
 		StringBuilder topic = new StringBuilder();
 		topic.append("LWM/+/").append(orgId).append("/")
 				.append(clientEndpointId).append("/")
 				.append(clientApplicationId).append("/#");
 		// Subscribe a topic to broker
-		mqttClient.subscribe(topic.toString(), QOS);
+		mqttClient.subscribe(topic.toString(), mqttClient.getQosPolicy()
+				.getSubscribeQos());
 
 		// Create an instanceof Lwserver Object - assume that its sent by server
 		// during bootstrap
-		LwM2MServerObject.createObject();
-		LwM2MServerObject.createObjectInstance();
+		LwM2MServerObject.createObject(this);
+		LwM2MServerObject.createObjectInstance(this);
 
 		// set the server id
 		setServerId(serverEndpointId);
+	}
 
-		// Create the temperature object that this client is representing
-		TemperatureSensorObject.createObject();
-
-		// Create the temp object instance and resources
-		TemperatureSensorObject.createObjectInstance();
-
+	/*
+	 * Unsubscribes this device from the connection it shares
+	 */
+	void detach() {
+		StringBuilder topic = new StringBuilder();
+		topic.append("LWM/+/").append(orgId).append("/")
+				.append(clientEndpointId).append("/")
+				.append(clientApplicationId).append("/#");
+		mqttClient.unsubscribe(topic.toString());
+		NotificationBatcher.remove(mqttClient, clientEndpointId);
 	}
 
-	private void register() {
+	/**
+	 * Registers this device to the server, retrying as long as the server
+	 * tells it to come back later
+	 * 
+	 * @return true if the device is registered
+	 */
+	public boolean register() {
 		/*
 		 * This example simulates the IPSO temperature object which has 3
 		 * resources,
@@ -148,7 +229,48 @@ public class LwM2MClient {
 
 		// String objects = "</1/0>,</3>,<3303/0>";
 
+		Response registerResponse = sendRegister();
+
+		// the server may be overloaded, come back as told
+		for (int attempt = 1; registerResponse.getRetryAfter() >= 0
+				&& attempt < MAX_REGISTER_ATTEMPTS; attempt++) {
+			int retryAfter = registerResponse.getRetryAfter();
+			LOG.info("Server busy, retrying the registration in " + retryAfter + "s");
+			try {
+				Thread.sleep(retryAfter * 1000L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			registerResponse = sendRegister();
+		}
+		if (registerResponse.getCodeAsInt() != ResponseCode.CREATED.code) {
+			LOG.error("Registration of " + clientEndpointId + " failed with "
+					+ registerResponse.getMessage());
+			return false;
+		}
+		this.registerLocationID = registerResponse.getPayloadText();
+		return true;
+	}
+
+	public boolean isRegistered() {
+		return registerLocationID != null;
+	}
+
+	public String getEndpointId() {
+		return clientEndpointId;
+	}
+
+	/**
+	 * Returns the root of the resource tree of this device
+	 */
+	public MQTTResource getRoot() {
+		return root;
+	}
+
+	private Response sendRegister() {
 		String objects = getListofObjects();
+		String objectsHash = ObjectListHash.of(objects);
 
 		// build a new post request
 		Request mqttRequest = Request.newPost();
@@ -157,6 +279,7 @@ public class LwM2MClient {
 		mqttRequest.setApplicationID(this.serverApplicationId);
 		mqttRequest.setEndPointId(this.getServerId());
 		mqttRequest.setOrganizationID(this.orgId);
+		mqttRequest.setFraming(this.framing);
 
 		// we know that the registeration is done at the rd resource
 		mqttRequest.addURIPath("rd");
@@ -166,6 +289,12 @@ public class LwM2MClient {
 		sb.append("ep=");
 		sb.append(this.clientEndpointId);
 		sb.append("&lt=").append("86400");
+		if (framing != Framing.TEXT) {
+			sb.append("&").append(Framing.QUERY_PARAM_FRAMING)
+					.append(framing.getParameter());
+		}
+		sb.append("&").append(ObjectListHash.QUERY_PARAM_OBJECTS_HASH)
+				.append(objectsHash);
 		sb.append(" ").append(objects);
 		mqttRequest.setPayloadContent(sb.toString());
 
@@ -186,30 +315,22 @@ public class LwM2MClient {
 			}
 
 		};
-		callback.addRequest(mqttRequest.getMessageID(), syncMessageObserver);
-		mqttClient.publish(mqttRequest.getTopic(),
-				mqttRequest.getMessageAsString());
+		callback.addRequest(mqttRequest.getMessageID(), syncMessageObserver,
+				REQUEST_TIMEOUT_MILLIS);
+		mqttClient.publish(mqttRequest);
 
 		// Wait for response, then return it
-		Response registerResponse = syncMessageObserver.getResponse();
-		this.registerLocationID = registerResponse.getPayloadText();
-
-		// Deregister on shutdown and stop client.
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			@Override
-			public void run() {
-				if (registerLocationID != null) {
-					LOG.info("Device: Deregistering Client '"
-							+ registerLocationID + "'");
-					deregister();
-				}
-			}
-		});
+		Response response = syncMessageObserver.getResponse();
+		if (response != null && response.getCodeAsInt() == ResponseCode.CREATED.code) {
+			registeredObjectsHash = objectsHash;
+		}
+		return response;
 	}
 
 	public void updateRegisteration() {
 
 		String objects = getListofObjects();
+		final String objectsHash = ObjectListHash.of(objects);
 
 		// build a new update request
 		Request mqttRequest = Request.newPut();
@@ -218,6 +339,7 @@ public class LwM2MClient {
 		mqttRequest.setApplicationID(this.serverApplicationId);
 		mqttRequest.setEndPointId(this.getServerId());
 		mqttRequest.setOrganizationID(this.orgId);
+		mqttRequest.setFraming(this.framing);
 
 		// we know that the registeration is done at the rd resource
 		mqttRequest.addURIPath(this.registerLocationID);
@@ -226,15 +348,53 @@ public class LwM2MClient {
 		sb.append("ep=");
 		sb.append(this.clientEndpointId);
 		sb.append("&lt=").append("86400");
-		sb.append(" ").append(objects);
+		if (framing != Framing.TEXT) {
+			sb.append("&").append(Framing.QUERY_PARAM_FRAMING)
+					.append(framing.getParameter());
+		}
+		sb.append("&").append(ObjectListHash.QUERY_PARAM_OBJECTS_HASH)
+				.append(objectsHash);
+		// the list is only sent when the server does not hold it already
+		if (!objectsHash.equals(registeredObjectsHash)) {
+			sb.append(" ").append(objects);
+		}
 		mqttRequest.setPayloadContent(sb.toString());
 
-		mqttClient.publish(mqttRequest.getTopic(),
-				mqttRequest.getMessageAsString());
+		// the server holds the list once it accepted the update, after an
+		// error the list is sent again with the next update
+		callback.addRequest(mqttRequest.getMessageID(), new AbstractRequestObserver(mqttRequest) {
+			@Override
+			public void onResponse(Response mqttResponse) {
+				if (mqttResponse.getCodeAsInt() == ResponseCode.CHANGED.code) {
+					registeredObjectsHash = objectsHash;
+				} else {
+					registeredObjectsHash = null;
+				}
+			}
+
+			@Override
+			public void onError(Response mqttResponse) {
+				LOG.warn("Registration update of " + clientEndpointId + " failed with "
+						+ mqttResponse.getMessage());
+				registeredObjectsHash = null;
+			}
+
+			@Override
+			public void onTimeout() {
+				registeredObjectsHash = null;
+			}
+		}, REQUEST_TIMEOUT_MILLIS);
+		mqttClient.publish(mqttRequest);
 
 	}
 
-	private void deregister() {
+	/**
+	 * Deregisters this device from the server, if it is registered
+	 */
+	public void deregister() {
+		if (registerLocationID == null) {
+			return;
+		}
 
 		// build a new delete request
 		Request mqttRequest = Request.newDelete();
@@ -243,16 +403,16 @@ public class LwM2MClient {
 		mqttRequest.setApplicationID(this.serverApplicationId);
 		mqttRequest.setEndPointId(this.getServerId());
 		mqttRequest.setOrganizationID(this.orgId);
+		mqttRequest.setFraming(this.framing);
 
 		mqttRequest.addURIPath(this.registerLocationID);
-		mqttClient.publish(mqttRequest.getTopic(),
-				mqttRequest.getMessageAsString());
+		mqttClient.publish(mqttRequest);
 		registerLocationID = null;
 	}
 
 	private String getListofObjects() {
 		StringBuilder result = new StringBuilder();
-		Resource resource = this.mqttClient.getRoot();
+		Resource resource = this.root;
 		Collection<Resource> objects = resource.getChildren();
 		if (objects == null)
 			return "";
@@ -280,11 +440,16 @@ public class LwM2MClient {
 	}
 
 	Resource getResource(String path) {
+		long key = ResourceIndex.key(path);
+		if (key != ResourceIndex.NO_KEY) {
+			return root.getIndex().get(key);
+		}
+
 		if (path.charAt(0) == '/') {
 			path = path.substring(1);
 		}
 		String ids[] = path.split("/");
-		Resource resource = this.mqttClient.getRoot();
+		Resource resource = this.root;
 
 		if (ids.length >= 1 && ids[0] == null) {
 			return null;
@@ -336,7 +501,9 @@ public class LwM2MClient {
 
 				case "register":
 					if (registerLocationID == null) {
-						this.register();
+						if (this.register()) {
+							deregisterOnShutdown();
+						}
 					} else {
 						System.out.println("This client is already registered in the server");
 					}
@@ -400,8 +567,24 @@ public class LwM2MClient {
 
 	}
 
+	/*
+	 * Deregister on shutdown and stop client.
+	 */
+	private void deregisterOnShutdown() {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				if (registerLocationID != null) {
+					LOG.info("Device: Deregistering Client '"
+							+ registerLocationID + "'");
+					deregister();
+				}
+			}
+		});
+	}
+
 	private String getServerId() {
-		Resource resource = mqttClient.getRoot();
+		Resource resource = root;
 		// Get the server object
 		resource = resource.getChild("1");
 		// Get the server object instance
@@ -412,7 +595,7 @@ public class LwM2MClient {
 	}
 
 	private void setServerId(String id) {
-		Resource resource = mqttClient.getRoot();
+		Resource resource = root;
 		// Get the server object
 		resource = resource.getChild("1");
 		// Get the server object instance
@@ -429,8 +612,11 @@ public class LwM2MClient {
 		return client;
 	}
 
+	/**
+	 * Returns the root of the resource tree of the device of this JVM
+	 */
 	public static Resource getRootResource() {
-		return client.mqttClient.getRoot();
+		return getClient().getRoot();
 	}
 
 	private abstract class SyncRequestObserver<T> extends
@@ -479,11 +665,19 @@ public class LwM2MClient {
 			}
 		}
 
+		@Override
+		public void onTimeout() {
+			mqttTimeout.set(true);
+			latch.countDown();
+		}
+
+		/*
+		 * The deadline is owned by the timer of the message receiver
+		 */
 		public void waitForResponse() {
 			try {
-				final boolean latchTimeout = latch.await(timeout,
-						TimeUnit.MILLISECONDS);
-				if (!latchTimeout || mqttTimeout.get()) {
+				latch.await();
+				if (mqttTimeout.get()) {
 					if (exception.get() != null) {
 						throw exception.get();
 					} else {
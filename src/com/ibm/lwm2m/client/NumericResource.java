@@ -0,0 +1,9 @@
+package com.ibm.lwm2m.client;
+
+/**
+ * A local resource with a numeric value, which the gt, lt and st
+ * attributes of an observation are evaluated against
+ */
+public interface NumericResource extends LocalResource {
+	public double getNumericValue();
+}
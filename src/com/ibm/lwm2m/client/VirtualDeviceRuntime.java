@@ -0,0 +1,325 @@
+package com.ibm.lwm2m.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.lwm2m.NotificationBatcher;
+import com.ibm.lwm2m.objects.TemperatureSensorObject;
+import com.ibm.mqttv3.binding.Framing;
+import com.ibm.mqttv3.binding.LoopbackBroker;
+import com.ibm.mqttv3.binding.MQTTWrapper;
+import com.ibm.mqttv3.binding.MqttTransportFactory;
+import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+import com.ibm.mqttv3.binding.PahoTransport;
+import com.ibm.mqttv3.binding.QosPolicy;
+
+/**
+ * Hosts many independent LwM2M devices in one JVM, for gateways and for
+ * load tests of the server with fleets of devices.
+ *
+ * Each device is a {@link LwM2MClient} with a resource tree, a registration
+ * and observations of its own. The devices share a fixed pool of MQTT
+ * connections, the requests of the server are routed to the device named
+ * in their topic. With a pool of 0 connections each device connects on its
+ * own instead, like a real fleet does.
+ *
+ * The objects of a device are added with the createObject(LwM2MClient)
+ * and createObjectInstance(LwM2MClient) factories of the object classes,
+ * before the device registers.
+ */
+public class VirtualDeviceRuntime {
+
+	private static final Logger LOG = LoggerFactory.getLogger(VirtualDeviceRuntime.class);
+
+	private final MqttTransportFactory transports;
+	private final String runtimeID;
+	private final int poolSize;
+
+	private final List<Connection> pool = new ArrayList<Connection>();
+	private final AtomicInteger nextConnection = new AtomicInteger();
+	private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<String, Device>();
+
+	private volatile QosPolicy qosPolicy = new QosPolicy();
+	private volatile int maxInflight = 0;
+	private volatile boolean started = false;
+
+	/**
+	 * @param brokerAddress the broker the devices connect to
+	 * @param runtimeID prefix of the MQTT client ids of the connections,
+	 *        unique per runtime
+	 * @param connections number of connections the devices share, 0 to
+	 *        connect each device on its own
+	 */
+	public VirtualDeviceRuntime(InetSocketAddress brokerAddress, String runtimeID, int connections) {
+		this(PahoTransport.factory(brokerAddress), runtimeID, connections);
+	}
+
+	/**
+	 * Connects the devices through the transports of the given factory,
+	 * a {@link LoopbackBroker} runs them in memory with the server
+	 */
+	public VirtualDeviceRuntime(MqttTransportFactory transports, String runtimeID, int connections) {
+		if(connections < 0) {
+			throw new IllegalArgumentException("connections must not be negative: "+connections);
+		}
+		this.transports = transports;
+		this.runtimeID = runtimeID;
+		this.poolSize = connections;
+	}
+
+	/**
+	 * Sets the QoS of the connections opened from now on
+	 */
+	public void setQosPolicy(QosPolicy qosPolicy) {
+		this.qosPolicy = qosPolicy;
+	}
+
+	/**
+	 * Sets the in-flight window of the connections opened from now on,
+	 * see {@link MQTTWrapper#setMaxInflight(int)}
+	 */
+	public void setMaxInflight(int maxInflight) {
+		this.maxInflight = maxInflight;
+	}
+
+	/**
+	 * Opens the shared connections
+	 */
+	public synchronized void start() {
+		if(started) {
+			return;
+		}
+		for(int i = 0; i < poolSize; i++) {
+			pool.add(connect(runtimeID + "-" + i));
+		}
+		started = true;
+		LOG.info("Virtual device runtime "+runtimeID+" started with "+poolSize+" shared connections");
+	}
+
+	/**
+	 * Deregisters all the devices and closes the connections
+	 */
+	public synchronized void stop() {
+		for(String endpointID : new ArrayList<String>(devices.keySet())) {
+			removeDevice(endpointID);
+		}
+		for(Connection connection : pool) {
+			connection.mqttClient.stop();
+		}
+		pool.clear();
+		started = false;
+	}
+
+	/**
+	 * Adds a device with the LwM2M server object, which still has to be
+	 * given its objects and be registered
+	 *
+	 * @throws IllegalStateException if the runtime is not started or the
+	 *         endpoint is hosted already
+	 */
+	public LwM2MClient addDevice(String orgID, String endpointID, String applicationID,
+			String serverEndpointID, String serverApplicationID, Framing framing) {
+		if(!started) {
+			throw new IllegalStateException("Virtual device runtime "+runtimeID+" is not started");
+		}
+		Connection connection;
+		if(poolSize == 0) {
+			connection = connect(runtimeID + "-" + endpointID);
+		} else {
+			connection = pool.get((nextConnection.getAndIncrement() & Integer.MAX_VALUE) % poolSize);
+		}
+		LwM2MClient client = new LwM2MClient(orgID, endpointID, applicationID,
+				serverEndpointID, serverApplicationID, framing);
+		Device device = new Device(client, connection);
+		if(devices.putIfAbsent(endpointID, device) != null) {
+			if(poolSize == 0) {
+				connection.mqttClient.stop();
+			}
+			throw new IllegalStateException("Endpoint "+endpointID+" is hosted already");
+		}
+		client.attach(connection.mqttClient, connection.receiver, connection.mqttClient.host(endpointID));
+		return client;
+	}
+
+	/**
+	 * Deregisters the device and removes it from its connection, the
+	 * connection of its own is closed
+	 */
+	public void removeDevice(String endpointID) {
+		Device device = devices.remove(endpointID);
+		if(device == null) {
+			return;
+		}
+		device.client.deregister();
+		device.client.detach();
+		device.connection.mqttClient.unhost(endpointID);
+		if(poolSize == 0) {
+			device.connection.mqttClient.stop();
+		}
+	}
+
+	public LwM2MClient getDevice(String endpointID) {
+		Device device = devices.get(endpointID);
+		return device == null ? null : device.client;
+	}
+
+	public Collection<LwM2MClient> getDevices() {
+		List<LwM2MClient> clients = new ArrayList<LwM2MClient>(devices.size());
+		for(Device device : devices.values()) {
+			clients.add(device.client);
+		}
+		return Collections.unmodifiableList(clients);
+	}
+
+	public int getDeviceCount() {
+		return devices.size();
+	}
+
+	/**
+	 * Returns the number of open connections
+	 */
+	public int getConnectionCount() {
+		return poolSize == 0 ? devices.size() : pool.size();
+	}
+
+	/**
+	 * Registers the devices which are not registered yet, the given number
+	 * at a time, and waits until all of them are done
+	 *
+	 * @return the number of devices registered
+	 */
+	public int registerAll(int parallelism) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+				new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, runtimeID + "-register-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final AtomicInteger registered = new AtomicInteger();
+		for(final Device device : devices.values()) {
+			if(device.client.isRegistered()) {
+				continue;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if(device.client.register()) {
+							registered.incrementAndGet();
+						}
+					} catch (RuntimeException e) {
+						LOG.error("Registration of "+device.client.getEndpointId()+" failed", e);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		return registered.get();
+	}
+
+	private Connection connect(String clientID) {
+		MQTTWrapper mqttClient = new MQTTWrapper(transports.create(clientID), clientID);
+		mqttClient.setMaxInflight(maxInflight);
+		mqttClient.setQosPolicy(qosPolicy);
+		mqttClient.start();
+		MqttV3MessageReceiver receiver = new MqttV3MessageReceiver(mqttClient);
+		mqttClient.setCallBack(receiver);
+		return new Connection(mqttClient, receiver);
+	}
+
+	private static final class Connection {
+		private final MQTTWrapper mqttClient;
+		private final MqttV3MessageReceiver receiver;
+
+		private Connection(MQTTWrapper mqttClient, MqttV3MessageReceiver receiver) {
+			this.mqttClient = mqttClient;
+			this.receiver = receiver;
+		}
+	}
+
+	private static final class Device {
+		private final LwM2MClient client;
+		private final Connection connection;
+
+		private Device(LwM2MClient client, Connection connection) {
+			this.client = client;
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Runs a fleet of temperature sensors against the server configured in
+	 * mqtt.properties, the endpoints are CLIENT_ID-0 to CLIENT_ID-(devices-1)
+	 *
+	 * usage: VirtualDeviceRuntime devices [connections]
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("usage: VirtualDeviceRuntime devices [connections]");
+			return;
+		}
+		int count = Integer.parseInt(args[0]);
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) :
+			Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors()));
+
+		Properties properties = new Properties();
+		try {
+			properties.load(Thread.currentThread().getContextClassLoader()
+					.getResourceAsStream("mqtt.properties"));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		NotificationBatcher.setWindow(Long.parseLong(properties.getProperty(
+				"NOTIFICATION_BATCH_WINDOW", "0").trim()), TimeUnit.MILLISECONDS);
+		InetSocketAddress brokerAddress = new InetSocketAddress(properties.getProperty("MQTT_SERVER"),
+				Integer.parseInt(properties.getProperty("MQTT_PORT")));
+		String clientID = properties.getProperty("CLIENT_ID");
+
+		final VirtualDeviceRuntime runtime = new VirtualDeviceRuntime(brokerAddress,
+				clientID + "-runtime", connections);
+		runtime.setQosPolicy(QosPolicy.fromProperties(properties));
+		runtime.setMaxInflight(Integer.parseInt(properties.getProperty("MQTT_MAX_INFLIGHT", "0").trim()));
+		runtime.start();
+
+		Framing framing = Framing.fromConfig(properties.getProperty("FRAMING"));
+		for(int i = 0; i < count; i++) {
+			LwM2MClient client = runtime.addDevice(properties.getProperty("ORGID"), clientID + "-" + i,
+					properties.getProperty("CLIENT_APPLICATIONID"), properties.getProperty("SERVER_ID"),
+					properties.getProperty("SERVER_APPLICATIONID"), framing);
+			TemperatureSensorObject.createObject(client);
+			TemperatureSensorObject.createObjectInstance(client);
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				LOG.info("Deregistering "+runtime.getDeviceCount()+" virtual devices");
+				runtime.stop();
+			}
+		});
+
+		long start = System.nanoTime();
+		int registered = runtime.registerAll(connections * 4);
+		LOG.info(registered+" of "+count+" virtual devices registered on "+runtime.getConnectionCount()
+				+" connections in "+TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+"ms");
+	}
+}
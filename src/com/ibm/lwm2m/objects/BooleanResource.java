@@ -50,7 +50,7 @@ public class BooleanResource extends MQTTResource implements LocalResource {
 		if(null != observer) {
 			if(null != observeSpec)
 				observer.setObserveSpec(observeSpec);
-			observer.run();
+			observer.valueChanged();
 		}
 		
 	}
@@ -110,7 +110,7 @@ public class BooleanResource extends MQTTResource implements LocalResource {
         	if(observer == null) {
         		this.observer = new ObserveNotify(exchange, this, 
         							observeSpec, this.getValue());
-        		observer.scheduleNext();
+        		observer.start();
         	}
         	exchange.respond(ResponseCode.CONTENT, this.getValue());
         	
@@ -6,14 +6,14 @@ import org.slf4j.LoggerFactory;
 import com.ibm.lwm2m.ObserveNotify;
 import com.ibm.lwm2m.ObserveSpec;
 import com.ibm.lwm2m.ObserveSpecParser;
-import com.ibm.lwm2m.client.LocalResource;
+import com.ibm.lwm2m.client.NumericResource;
 import com.ibm.mqttv3.binding.MQTTExchange;
 import com.ibm.mqttv3.binding.MQTTResource;
 import com.ibm.mqttv3.binding.Request;
 import com.ibm.mqttv3.binding.ResponseCode;
 import com.ibm.mqttv3.binding.MQTT.PUT;
 
-public class FloatResource extends MQTTResource implements LocalResource {
+public class FloatResource extends MQTTResource implements NumericResource {
 
 	private static final Logger LOG = LoggerFactory.getLogger(FloatResource.class);
 	
@@ -29,6 +29,11 @@ public class FloatResource extends MQTTResource implements LocalResource {
 		this.value = value;
 	}
 	
+	@Override
+	public double getNumericValue() {
+		return value;
+	}
+	
 	@Override
 	public String getValue() {
 		return Float.toString(value);
@@ -46,7 +51,7 @@ public class FloatResource extends MQTTResource implements LocalResource {
 		if(null != observer) {
 			if(null != observeSpec)
 				observer.setObserveSpec(observeSpec);
-			observer.run();
+			observer.valueChanged();
 		}
 		
 	}
@@ -106,7 +111,7 @@ public class FloatResource extends MQTTResource implements LocalResource {
         	if(observer == null) {
         		this.observer = new ObserveNotify(exchange, this, 
         			observeSpec, this.getValue());
-        		observer.scheduleNext();
+        		observer.start();
         	}
         	exchange.respond(ResponseCode.CONTENT, this.getValue());
         	
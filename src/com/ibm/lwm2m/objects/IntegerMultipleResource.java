@@ -57,7 +57,7 @@ public class IntegerMultipleResource extends MQTTResource implements LocalResour
 		if(null != observer) {
 			if(null != observeSpec)
 				observer.setObserveSpec(observeSpec);
-			observer.run();
+			observer.valueChanged();
 		}
 		
 	}
@@ -117,7 +117,7 @@ public class IntegerMultipleResource extends MQTTResource implements LocalResour
         	if(observer == null) {
         		this.observer = new ObserveNotify(exchange, this, 
         			observeSpec, this.getValue());
-        		observer.scheduleNext();
+        		observer.start();
         	}
         	exchange.respond(ResponseCode.CONTENT, this.getValue());
         	
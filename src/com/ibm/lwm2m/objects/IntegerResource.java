@@ -6,14 +6,14 @@ import org.slf4j.LoggerFactory;
 import com.ibm.lwm2m.ObserveNotify;
 import com.ibm.lwm2m.ObserveSpec;
 import com.ibm.lwm2m.ObserveSpecParser;
-import com.ibm.lwm2m.client.LocalResource;
+import com.ibm.lwm2m.client.NumericResource;
 import com.ibm.mqttv3.binding.MQTTExchange;
 import com.ibm.mqttv3.binding.MQTTResource;
 import com.ibm.mqttv3.binding.Request;
 import com.ibm.mqttv3.binding.ResponseCode;
 import com.ibm.mqttv3.binding.MQTT.PUT;
 
-public class IntegerResource extends MQTTResource implements LocalResource {
+public class IntegerResource extends MQTTResource implements NumericResource {
 
 	private static final Logger LOG = LoggerFactory.getLogger(IntegerResource.class);
 	
@@ -33,6 +33,11 @@ public class IntegerResource extends MQTTResource implements LocalResource {
 		this.value = value;
 	}
 	
+	@Override
+	public double getNumericValue() {
+		return value;
+	}
+	
 	@Override
 	public String getValue() {
 		return Integer.toString(value);
@@ -50,7 +55,7 @@ public class IntegerResource extends MQTTResource implements LocalResource {
 		if(null != observer) {
 			if(null != observeSpec)
 				observer.setObserveSpec(observeSpec);
-			observer.run();
+			observer.valueChanged();
 		}
 		
 	}
@@ -110,7 +115,7 @@ public class IntegerResource extends MQTTResource implements LocalResource {
         	if(observer == null) {
         		this.observer = new ObserveNotify(exchange, this, 
         			observeSpec, this.getValue());
-        		observer.scheduleNext();
+        		observer.start();
         	}
         	exchange.respond(ResponseCode.CONTENT, this.getValue());
         	
@@ -122,15 +122,23 @@ public class LwM2MExampleDeviceObject extends MQTTResource {
 	}
 	
 	public static LwM2MExampleDeviceObject createObject() {
+		return createObject(LwM2MClient.getClient());
+	}
+	
+	public static LwM2MExampleDeviceObject createObject(LwM2MClient client) {
 		LwM2MExampleDeviceObject to = new LwM2MExampleDeviceObject(RESOURCE_NAME, false);
-		LwM2MClient.getRootResource().add(to);
+		client.getRoot().add(to);
 		return to;
 	}
 	
 	public static LwM2MExampleDeviceObject createObjectInstance() {
+		return createObjectInstance(LwM2MClient.getClient());
+	}
+	
+	public static LwM2MExampleDeviceObject createObjectInstance(LwM2MClient client) {
 		LwM2MExampleDeviceObject to = new LwM2MExampleDeviceObject("0", true);
 		
-		Resource resource = LwM2MClient.getRootResource().getChild(RESOURCE_NAME);
+		Resource resource = client.getRoot().getChild(RESOURCE_NAME);
 		resource.add(to);
 		to.add(to.manufacturerResource);
 		to.add(to.modelResource);
@@ -9,7 +9,6 @@ import com.ibm.lwm2m.objects.ExecResource;
 import com.ibm.lwm2m.objects.IntegerResource;
 import com.ibm.lwm2m.objects.StringResource;
 import com.ibm.mqttv3.binding.MQTTResource;
-import com.ibm.mqttv3.binding.Resource;
 
 /*
  * Represents the LwM2M Server Object /1
@@ -21,7 +20,8 @@ public class LwM2MServerObject extends MQTTResource {
 	
 	public static final String RESOURCE_NAME = "1";
 	ObserveSpec observeSpec = new ObserveSpec();
-	private static final AtomicInteger instanceCounter = new AtomicInteger(0); 
+	/* ids of the instances of the object, per device */
+	private final AtomicInteger instanceCounter = new AtomicInteger(0); 
 	
 	public LwM2MServerObject(String name, boolean bInstance) {
 		super(name);
@@ -50,16 +50,24 @@ public class LwM2MServerObject extends MQTTResource {
 	private ExecResource bRegistrationUpdateTrigger;
 	
 	public static LwM2MServerObject createObject() {
+		return createObject(LwM2MClient.getClient());
+	}
+	
+	public static LwM2MServerObject createObject(LwM2MClient client) {
 		LwM2MServerObject to = new LwM2MServerObject(RESOURCE_NAME, false);
-		LwM2MClient.getRootResource().add(to);
+		client.getRoot().add(to);
 		return to;
 	}
 	
 	public static LwM2MServerObject createObjectInstance() {
+		return createObjectInstance(LwM2MClient.getClient());
+	}
+	
+	public static LwM2MServerObject createObjectInstance(LwM2MClient client) {
+		LwM2MServerObject object = (LwM2MServerObject) client.getRoot().getChild(RESOURCE_NAME);
 		LwM2MServerObject to = new LwM2MServerObject(
-				Integer.toString(instanceCounter.getAndIncrement()), true);
-		Resource resource = LwM2MClient.getRootResource().getChild(RESOURCE_NAME);
-		resource.add(to);
+				Integer.toString(object.instanceCounter.getAndIncrement()), true);
+		object.add(to);
 		to.add(to.serverId);
 		to.add(to.lifttime);
 		to.add(to.minPeriod);
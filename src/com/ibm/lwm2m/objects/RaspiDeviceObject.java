@@ -124,16 +124,23 @@ public class RaspiDeviceObject extends MQTTResource {
 	}
 
 	public static RaspiDeviceObject createObject() {
+		return createObject(LwM2MClient.getClient());
+	}
+
+	public static RaspiDeviceObject createObject(LwM2MClient client) {
 		RaspiDeviceObject to = new RaspiDeviceObject(RESOURCE_NAME, false);
-		LwM2MClient.getRootResource().add(to);
+		client.getRoot().add(to);
 		return to;
 	}
 
 	public static RaspiDeviceObject createObjectInstance() {
+		return createObjectInstance(LwM2MClient.getClient());
+	}
+
+	public static RaspiDeviceObject createObjectInstance(LwM2MClient client) {
 		RaspiDeviceObject to = new RaspiDeviceObject("0", true);
 
-		Resource resource = LwM2MClient.getRootResource().getChild(
-				RESOURCE_NAME);
+		Resource resource = client.getRoot().getChild(RESOURCE_NAME);
 		resource.add(to);
 		to.add(to.manufacturerResource);
 		to.add(to.modelResource);
@@ -37,7 +37,7 @@ public class StringResource extends MQTTResource implements LocalResource {
 		if(null != observer) {
 			if(null != observeSpec)
 				observer.setObserveSpec(observeSpec);
-			observer.run();
+			observer.valueChanged();
 		}
 		
 	}
@@ -97,7 +97,7 @@ public class StringResource extends MQTTResource implements LocalResource {
         	if(observer == null) {
         		this.observer = new ObserveNotify(exchange, this, 
         			observeSpec, this.getValue());
-        		observer.scheduleNext();
+        		observer.start();
         	}
         	exchange.respond(ResponseCode.CONTENT, this.getValue());
         	
@@ -2,6 +2,7 @@ package com.ibm.lwm2m.objects;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.ibm.lwm2m.AttributeHolder;
 import com.ibm.lwm2m.ObserveSpec;
 import com.ibm.lwm2m.ObserveSpecParser;
 import com.ibm.lwm2m.client.LwM2MClient;
@@ -21,12 +22,15 @@ import com.ibm.mqttv3.binding.MQTT.PUT;
  * for minimum/maximum measured values since the sensor is on 
  *
  */
-public class TemperatureSensorObject extends MQTTResource {
+public class TemperatureSensorObject extends MQTTResource implements AttributeHolder {
 	
 	public static final String RESOURCE_NAME = "3303";
 	
 	private boolean bInstance = false;
-	private static final AtomicInteger instanceCounter = new AtomicInteger(0);
+	/* ids of the instances of the object, per device */
+	private final AtomicInteger instanceCounter = new AtomicInteger(0);
+	/* device the object belongs to */
+	private LwM2MClient client;
 	
 	private FloatResource minMeasuredValue; 
 	private FloatResource maxMeasuredValue;
@@ -53,12 +57,12 @@ public class TemperatureSensorObject extends MQTTResource {
 	@Override
 	public void handlePOST(MQTTExchange exchange) {
 		Request request = exchange.getRequest();
-		TemperatureSensorObject.createObjectInstance(Integer.valueOf(request.getObjectInstanceId()));
+		TemperatureSensorObject.createObjectInstance(client, Integer.valueOf(request.getObjectInstanceId()));
 		if(!bInstance)
 			exchange.respond(ResponseCode.CREATED, "");
 		else 
 			exchange.respond(ResponseCode.CHANGED, "");
-		LwM2MClient.getClient().updateRegisteration();
+		client.updateRegisteration();
 	}
 
 	@Override
@@ -84,32 +88,55 @@ public class TemperatureSensorObject extends MQTTResource {
 		}
 	}
 
+	/*
+	 * Attributes written to the object or the instance, inherited by the
+	 * observations of its resources
+	 */
+	@Override
+	public ObserveSpec getObserveSpec() {
+		return observeSpec;
+	}
+	
 	public static TemperatureSensorObject createObject() {
+		return createObject(LwM2MClient.getClient());
+	}
+	
+	public static TemperatureSensorObject createObject(LwM2MClient client) {
 		TemperatureSensorObject to = new TemperatureSensorObject(RESOURCE_NAME, false);
-		LwM2MClient.getRootResource().add(to);
+		to.client = client;
+		client.getRoot().add(to);
 		return to;
 	}
 	
-	public static synchronized TemperatureSensorObject createObjectInstance() {
-		TemperatureSensorObject to = new TemperatureSensorObject(
-				Integer.toString(instanceCounter.getAndIncrement()), true);
-		
-		Resource resource = LwM2MClient.getRootResource().getChild(RESOURCE_NAME);
-		resource.add(to);
-		to.add(to.minMeasuredValue);
-		to.add(to.maxMeasuredValue);
-		to.add(to.minRangeValue);
-		to.add(to.maxRangeValue);
-		to.add(to.sensorValue);
-		return to;
+	public static TemperatureSensorObject createObjectInstance() {
+		return createObjectInstance(LwM2MClient.getClient());
+	}
+	
+	public static TemperatureSensorObject createObjectInstance(LwM2MClient client) {
+		TemperatureSensorObject object = (TemperatureSensorObject) client.getRoot().getChild(RESOURCE_NAME);
+		synchronized (object) {
+			return addInstance(client, object, object.instanceCounter.getAndIncrement());
+		}
+	}
+	
+	public static TemperatureSensorObject createObjectInstance(int id) {
+		return createObjectInstance(LwM2MClient.getClient(), id);
+	}
+	
+	public static TemperatureSensorObject createObjectInstance(LwM2MClient client, int id) {
+		TemperatureSensorObject object = (TemperatureSensorObject) client.getRoot().getChild(RESOURCE_NAME);
+		synchronized (object) {
+			object.instanceCounter.set(id + 1);
+			return addInstance(client, object, id);
+		}
 	}
 	
-	public static synchronized TemperatureSensorObject createObjectInstance(int id) {
+	private static TemperatureSensorObject addInstance(LwM2MClient client, 
+			TemperatureSensorObject object, int id) {
 		TemperatureSensorObject to = new TemperatureSensorObject(
 				Integer.toString(id), true);
-		instanceCounter.set(id + 1);
-		Resource resource = LwM2MClient.getRootResource().getChild(RESOURCE_NAME);
-		resource.add(to);
+		to.client = client;
+		object.add(to);
 		to.add(to.minMeasuredValue);
 		to.add(to.maxMeasuredValue);
 		to.add(to.minRangeValue);
@@ -128,7 +155,7 @@ public class TemperatureSensorObject extends MQTTResource {
 		} else {
 			exchange.respond(ResponseCode.METHOD_NOT_ALLOWED, "");
 		}
-		LwM2MClient.getClient().updateRegisteration();		
+		client.updateRegisteration();		
 	}
 
 
@@ -1,8 +1,13 @@
 package com.ibm.mqttv3.binding;
 
+import com.ibm.mqttv3.binding.HashedWheelTimer.Timeout;
+
 public abstract class AbstractRequestObserver {
     protected Request mqttRequest;
 
+    /* deadline of the pending request, null for long living observers like observations */
+    private volatile Timeout timeout;
+
     public AbstractRequestObserver(final Request mqttRequest) {
         this.mqttRequest = mqttRequest;
     }
@@ -12,6 +17,32 @@ public abstract class AbstractRequestObserver {
 
 	public void onCancel() {
 		// TODO Auto-generated method stub
-		
+
+	}
+
+	/**
+	 * Invoked from the timer thread when no response arrived before the deadline.
+	 * The observer is already removed from the message receiver at this point.
+	 */
+	public void onTimeout() {
+
+	}
+
+	void setTimeout(Timeout timeout) {
+		this.timeout = timeout;
+	}
+
+	/*
+	 * Returns true if this observer waits for exactly one response
+	 */
+	boolean hasTimeout() {
+		return timeout != null;
+	}
+
+	void cancelTimeout() {
+		Timeout t = timeout;
+		if(t != null) {
+			t.cancel();
+		}
 	}
 }
@@ -0,0 +1,268 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps the message-ids of the pending requests of a connection to the
+ * observers waiting for their responses, without boxing the ids.
+ *
+ * The ids are spread over a fixed number of stripes, each one an open
+ * addressing table with linear probing like {@link ResourceIndex}. Lookups
+ * do not lock, updates lock their stripe only and a resized stripe is
+ * published once it is complete. The slots are written with ordered stores
+ * rather than volatile ones, the value before the key, as a reader only
+ * needs to see a complete entry. A reader checks the key again after the
+ * value, the slot may have been freed and taken by another id. A stripe grows as requests are added and
+ * shrinks again once they completed, up to the capacity split evenly over
+ * the stripes, so a burst of requests can not grow the table without bound.
+ *
+ * Message-ids are never negative, see {@link MessageID}.
+ */
+public class CorrelationTable<V> {
+
+	private static final int STRIPE_BITS = 4;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+	private static final int MIN_STRIPE_CAPACITY = 16;
+
+	/* slot states of the key arrays, a key is stored as id + 1 */
+	private static final long FREE = 0L;
+	private static final long REMOVED = -1L;
+
+	private final Stripe<V>[] stripes;
+
+	/**
+	 * @param capacity the max number of entries, split evenly over the stripes
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public CorrelationTable(int capacity) {
+		if (capacity < STRIPES) {
+			throw new IllegalArgumentException("capacity must be at least " + STRIPES + ": " + capacity);
+		}
+		int maxStripeSize = (capacity + STRIPES - 1) / STRIPES;
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe<V>(maxStripeSize);
+		}
+	}
+
+	/**
+	 * Returns the value of the message-id, or null
+	 */
+	public V get(long messageID) {
+		if (messageID < 0) {
+			return null;
+		}
+		long key = messageID + 1;
+		int hash = hash(key);
+		Stripe<V> stripe = stripes[hash & (STRIPES - 1)];
+		retry: for (;;) {
+			Table<V> t = stripe.table;
+			int mask = t.keys.length() - 1;
+			for (int i = (hash >>> STRIPE_BITS) & mask; ; i = (i + 1) & mask) {
+				long k = t.keys.get(i);
+				if (k == key) {
+					// the value is written before the key, null only while removed
+					V value = t.values.get(i);
+					if (t.keys.get(i) != key) {
+						// removed and reused for another id in the meantime
+						continue retry;
+					}
+					return value;
+				}
+				if (k == FREE) {
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps the message-id to the value, replacing the value it had
+	 *
+	 * @return false if the stripe of the message-id is full, the table is
+	 *         left unchanged then
+	 */
+	public boolean put(long messageID, V value) {
+		checkID(messageID);
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int hash = hash(messageID + 1);
+		return stripes[hash & (STRIPES - 1)].put(messageID + 1, hash, value);
+	}
+
+	/**
+	 * Removes the message-id whatever its value
+	 *
+	 * @return the value removed, or null
+	 */
+	public V remove(long messageID) {
+		if (messageID < 0) {
+			return null;
+		}
+		int hash = hash(messageID + 1);
+		return stripes[hash & (STRIPES - 1)].remove(messageID + 1, hash, null);
+	}
+
+	/**
+	 * Removes the message-id if it is still mapped to the given value
+	 */
+	public boolean remove(long messageID, V value) {
+		if (messageID < 0 || value == null) {
+			return false;
+		}
+		int hash = hash(messageID + 1);
+		return stripes[hash & (STRIPES - 1)].remove(messageID + 1, hash, value) != null;
+	}
+
+	/**
+	 * Returns the number of entries, not a snapshot while the table is updated
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the max number of entries
+	 */
+	public int capacity() {
+		return stripes[0].maxSize * STRIPES;
+	}
+
+	private static void checkID(long messageID) {
+		if (messageID < 0) {
+			throw new IllegalArgumentException("message-id must not be negative: " + messageID);
+		}
+	}
+
+	/*
+	 * The message-ids are sequential, so the id itself spreads them: the
+	 * low bits select the stripe and the next ones the slot, the pending
+	 * requests of a stripe end up next to each other
+	 */
+	private static int hash(long key) {
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private static final class Stripe<T> {
+		private final int maxSize;
+		private volatile Table<T> table = new Table<T>(MIN_STRIPE_CAPACITY);
+		/* read without the lock by size() only */
+		private int size;
+		private int removed;
+
+		private Stripe(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		synchronized boolean put(long key, int hash, T value) {
+			Table<T> t = table;
+			int mask = t.keys.length() - 1;
+			int reuse = -1;
+			int i = (hash >>> STRIPE_BITS) & mask;
+			for (; ; i = (i + 1) & mask) {
+				long k = t.keys.get(i);
+				if (k == key) {
+					t.values.lazySet(i, value);
+					return true;
+				}
+				if (k == FREE) {
+					break;
+				}
+				if (k == REMOVED && reuse < 0) {
+					reuse = i;
+				}
+			}
+			if (size >= maxSize) {
+				return false;
+			}
+			if (reuse < 0 && (size + removed + 1) * 4 > t.keys.length() * 3) {
+				// the slot found might move, probe the new table again
+				rehash();
+				return put(key, hash, value);
+			}
+			if (reuse >= 0) {
+				i = reuse;
+				removed--;
+			}
+			t.values.lazySet(i, value);
+			t.keys.lazySet(i, key);
+			size++;
+			return true;
+		}
+
+		/*
+		 * Removes the key, only if it maps to the given value unless null
+		 */
+		synchronized T remove(long key, int hash, T value) {
+			Table<T> t = table;
+			int mask = t.keys.length() - 1;
+			for (int i = (hash >>> STRIPE_BITS) & mask; ; i = (i + 1) & mask) {
+				long k = t.keys.get(i);
+				if (k == key) {
+					T current = t.values.get(i);
+					if (value != null && current != value) {
+						return null;
+					}
+					t.values.lazySet(i, null);
+					t.keys.lazySet(i, REMOVED);
+					size--;
+					removed++;
+					if (size * 8 < t.keys.length() && t.keys.length() > MIN_STRIPE_CAPACITY) {
+						rehash();
+					}
+					return current;
+				}
+				if (k == FREE) {
+					return null;
+				}
+			}
+		}
+
+		/*
+		 * Copies the live entries into a new table, doubled if more than half
+		 * of the slots are in use, halved if less than an eighth, and
+		 * publishes it
+		 */
+		private void rehash() {
+			Table<T> old = table;
+			int capacity = old.keys.length();
+			if ((size + 1) * 2 > capacity) {
+				capacity <<= 1;
+			} else if (size * 8 < capacity && capacity > MIN_STRIPE_CAPACITY) {
+				capacity >>>= 1;
+			}
+			Table<T> t = new Table<T>(capacity);
+			int mask = capacity - 1;
+			for (int j = 0; j < old.keys.length(); j++) {
+				long k = old.keys.get(j);
+				if (k == FREE || k == REMOVED) {
+					continue;
+				}
+				int i = (hash(k) >>> STRIPE_BITS) & mask;
+				while (t.keys.get(i) != FREE) {
+					i = (i + 1) & mask;
+				}
+				t.values.lazySet(i, old.values.get(j));
+				t.keys.lazySet(i, k);
+			}
+			removed = 0;
+			table = t;
+		}
+	}
+
+	private static final class Table<T> {
+		private final AtomicLongArray keys;
+		private final AtomicReferenceArray<T> values;
+
+		private Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicReferenceArray<T>(capacity);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the most recent requests by their requestor and message-id,
+ * to detect a request delivered twice.
+ *
+ * At QoS 1 the broker may deliver a message more than once, executing a
+ * write or an execute twice must be avoided at the application level.
+ */
+public class DuplicateFilter {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final Map<RequestKey, Boolean> recent;
+	private final AtomicLong duplicates = new AtomicLong();
+
+	public DuplicateFilter() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of requests remembered
+	 */
+	public DuplicateFilter(final int capacity) {
+		this.recent = new LinkedHashMap<RequestKey, Boolean>(capacity * 4 / 3 + 1, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RequestKey, Boolean> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns true if the request was seen already, otherwise remembers it
+	 */
+	public boolean isDuplicate(Request request) {
+		RequestKey key = new RequestKey(request.getRequestorEndpointID(),
+				request.getRequestorApplicationID(), request.getMessageID());
+		synchronized (recent) {
+			if (recent.put(key, Boolean.TRUE) == null) {
+				return false;
+			}
+		}
+		duplicates.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Number of duplicates detected
+	 */
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	private static final class RequestKey {
+		private final String endpointID;
+		private final String applicationID;
+		private final long messageID;
+
+		private RequestKey(String endpointID, String applicationID, long messageID) {
+			this.endpointID = endpointID;
+			this.applicationID = applicationID;
+			this.messageID = messageID;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = (int) (messageID ^ (messageID >>> 32));
+			h = 31 * h + (endpointID == null ? 0 : endpointID.hashCode());
+			return 31 * h + (applicationID == null ? 0 : applicationID.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RequestKey)) {
+				return false;
+			}
+			RequestKey other = (RequestKey) obj;
+			return messageID == other.messageID
+					&& (endpointID == null ? other.endpointID == null : endpointID.equals(other.endpointID))
+					&& (applicationID == null ? other.applicationID == null : applicationID.equals(other.applicationID));
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.ibm.mqttv3.binding;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The framing of the request and response payloads.
+ *
+ * TEXT is the original space delimited form,
+ *   request  - "messageID requestorEndpointID requestorAppID content"
+ *   response - "2.05 content"
+ *
+ * BINARY is a compact form for constrained links,
+ *   request  - magic, operation, varint messageID, varint length + requestorEndpointID,
+ *              varint length + requestorAppID, raw content
+ *   response - magic, code (class << 5 | detail as in CoAP), raw content
+ *
+ * A text frame always starts with a digit, so the framing of a received
+ * message is detected from its first byte. A client asks for the binary
+ * framing with the registration parameter fr=b, text stays the default
+ * for older devices.
+ */
+public enum Framing {
+	TEXT("t"),
+	BINARY("b");
+
+	/* first byte of a binary frame, never a digit */
+	public static final byte MAGIC = (byte) 0xB1;
+
+	/** registration parameter to negotiate the framing */
+	public static final String QUERY_PARAM_FRAMING = "fr=";
+
+	private final String parameter;
+
+	private Framing(String parameter) {
+		this.parameter = parameter;
+	}
+
+	/**
+	 * Returns the value of the fr= registration parameter for this framing
+	 */
+	public String getParameter() {
+		return parameter;
+	}
+
+	/**
+	 * Detects the framing of a received payload
+	 */
+	public static Framing of(byte[] payload) {
+		return (payload.length > 0 && payload[0] == MAGIC) ? BINARY : TEXT;
+	}
+
+	/**
+	 * Converts the value of the fr= registration parameter to a framing
+	 *
+	 * @throws IllegalArgumentException if the value is not recognized
+	 */
+	public static Framing fromParameter(String value) {
+		for(Framing framing : values()) {
+			if(framing.parameter.equals(value)) {
+				return framing;
+			}
+		}
+		throw new IllegalArgumentException("Unknown framing "+value);
+	}
+
+	/**
+	 * Converts a configuration value like "binary" or "text" to a framing,
+	 * returns TEXT when the value is absent
+	 */
+	public static Framing fromConfig(String value) {
+		if(value == null || value.trim().isEmpty()) {
+			return TEXT;
+		}
+		return valueOf(value.trim().toUpperCase());
+	}
+
+	/*
+	 * Helpers to write and read the fields of a binary frame
+	 */
+
+	static int varintSize(long value) {
+		int size = 1;
+		while((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	static int writeVarint(byte[] buf, int pos, long value) {
+		while((value & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	static int writeString(byte[] buf, int pos, byte[] value) {
+		pos = writeVarint(buf, pos, value.length);
+		System.arraycopy(value, 0, buf, pos, value.length);
+		return pos + value.length;
+	}
+
+	/*
+	 * Sequential reader over a binary frame
+	 */
+	static final class Reader {
+		private final byte[] buf;
+		private int pos;
+
+		Reader(byte[] buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+		}
+
+		int position() {
+			return pos;
+		}
+
+		byte readByte() {
+			if(pos >= buf.length) {
+				throw new IllegalArgumentException("Truncated binary frame");
+			}
+			return buf[pos++];
+		}
+
+		long readVarint() {
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7) {
+				byte b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Malformed varint in binary frame");
+		}
+
+		String readString() {
+			long length = readVarint();
+			if(length > buf.length - pos) {
+				throw new IllegalArgumentException("Truncated binary frame");
+			}
+			String value = new String(buf, pos, (int) length, StandardCharsets.UTF_8);
+			pos += (int) length;
+			return value;
+		}
+	}
+}
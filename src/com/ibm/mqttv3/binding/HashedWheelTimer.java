@@ -0,0 +1,299 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel.
+ *
+ * Timeouts are hashed into a fixed number of buckets by their deadline and
+ * a single worker thread advances one bucket per tick, expiring the timeouts
+ * whose deadline has been reached. Scheduling and cancelling are O(1) and
+ * do not allocate anything but the Timeout itself, which makes the wheel
+ * suitable for holding the deadlines of a very large number of pending
+ * requests. The price is a precision of one tick.
+ *
+ * Tasks are run on the worker thread, so they must be short and must not block.
+ */
+public class HashedWheelTimer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	/* max number of new timeouts moved into the wheel per tick */
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	private static final int ST_INIT = 0;
+	private static final int ST_CANCELLED = 1;
+	private static final int ST_EXPIRED = 2;
+
+	/**
+	 * A task which is executed after the delay given to {@link HashedWheelTimer#newTimeout}
+	 */
+	public interface TimerTask {
+		void run(Timeout timeout);
+	}
+
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+
+	/* timeouts are handed over to the worker thread through these queues */
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicLong pendingCount = new AtomicLong();
+
+	private final Thread workerThread;
+	private volatile boolean running = true;
+
+	/* only accessed by the worker thread */
+	private long tick;
+
+	/**
+	 * Creates a new timer and starts its worker thread.
+	 *
+	 * @param name the name of the worker thread
+	 * @param tickDuration the duration between two ticks
+	 * @param unit the unit of the tickDuration
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickDuration = unit.toNanos(tickDuration);
+		this.startTime = System.nanoTime();
+
+		workerThread = new Thread(new Worker(), name);
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	/**
+	 * Schedules the given task for one-time execution after the given delay.
+	 *
+	 * @return a handle which can be used to cancel the task
+	 */
+	public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		if (!running) {
+			throw new IllegalStateException("cannot be started once stopped");
+		}
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+		Timeout timeout = new Timeout(task, deadline);
+		pendingCount.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns the number of timeouts which are neither expired nor cancelled.
+	 */
+	public long pendingTimeouts() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * Stops the worker thread, pending timeouts are discarded.
+	 */
+	public void stop() {
+		running = false;
+		workerThread.interrupt();
+	}
+
+	/**
+	 * A handle associated with a {@link TimerTask}
+	 */
+	public final class Timeout {
+		private final TimerTask task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		/* bucket linkage, only accessed by the worker thread */
+		private long remainingRounds;
+		private Timeout next;
+		private Timeout prev;
+		private Bucket bucket;
+
+		private Timeout(TimerTask task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public TimerTask getTask() {
+			return task;
+		}
+
+		/**
+		 * Cancels the task, returns false if the task was already
+		 * expired or cancelled.
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			pendingCount.decrementAndGet();
+			// let the worker unlink it from its bucket
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			pendingCount.decrementAndGet();
+			try {
+				task.run(this);
+			} catch (Throwable t) {
+				LOG.warn("An exception was thrown by " + task.getClass().getSimpleName(), t);
+			}
+		}
+	}
+
+	/*
+	 * Doubly linked list of timeouts, only accessed by the worker thread
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = (timeout == tail) ? null : next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+
+		void expireTimeouts(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+					Timeout next = remove(timeout);
+					timeout.expire();
+					timeout = next;
+				} else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			while (running) {
+				long deadline = waitForNextTick();
+				if (deadline < 0) {
+					continue;
+				}
+				removeCancelledTimeouts();
+				transferTimeoutsToBuckets();
+				wheel[(int) (tick & mask)].expireTimeouts(deadline);
+				tick++;
+			}
+		}
+
+		private void removeCancelledTimeouts() {
+			Timeout timeout;
+			while ((timeout = cancelledTimeouts.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void transferTimeoutsToBuckets() {
+			for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+				Timeout timeout = pendingTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.isCancelled()) {
+					continue;
+				}
+				long calculated = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				// never schedule into the past
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+
+		/*
+		 * Sleeps until the next tick, returns the current time relative to
+		 * the start time or -1 if interrupted by stop()
+		 */
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			for (;;) {
+				long currentTime = System.nanoTime() - startTime;
+				long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+				if (sleepTimeMs <= 0) {
+					return currentTime;
+				}
+				try {
+					Thread.sleep(sleepTimeMs);
+				} catch (InterruptedException e) {
+					if (!running) {
+						return -1;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * A broker in memory, the servers and clients of one JVM exchange their
+ * messages through it without a network, e.g. to measure the protocol and
+ * the dispatching on their own or to run soak tests without a broker.
+ *
+ * The transports it creates behave like a Paho client connected with a
+ * clean session: the subscriptions match with the + and # wildcards, the
+ * retained messages are kept for the subscribers to come and a client
+ * connecting with the ID of a connected one takes it over. A shared
+ * subscription, $share/group/filter, hands each message to one member of
+ * the group after the other, as the nodes of a cluster of servers expect.
+ * Each transport delivers its messages and acknowledgements on a thread of
+ * its own, in the order they were published. A publish is acknowledged as soon as it
+ * is handed to the subscribers, whatever its QoS, nothing is lost and
+ * nothing is delivered twice.
+ *
+ * The queues of the subscribers are not bounded, a subscriber slower than
+ * its publishers makes them grow.
+ */
+public class LoopbackBroker implements MqttTransportFactory {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LoopbackBroker.class);
+
+	private static final String SINGLE_LEVEL = "+";
+	private static final String MULTI_LEVEL = "#";
+	private static final String SHARED_PREFIX = "$share/";
+
+	private final String name;
+
+	/* subscriptions by topic level, the wildcards are levels of their own */
+	private final TopicNode subscriptions = new TopicNode();
+	private final ConcurrentHashMap<String, Connection> connections =
+			new ConcurrentHashMap<String, Connection>();
+	private final ConcurrentHashMap<String, MqttMessage> retained =
+			new ConcurrentHashMap<String, MqttMessage>();
+
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	public LoopbackBroker() {
+		this("loopback");
+	}
+
+	/**
+	 * @param name names the broker in the server URI of its transports
+	 */
+	public LoopbackBroker(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public MqttTransport create(String clientID) {
+		return new Connection(clientID);
+	}
+
+	/*
+	 * Number of connected transports
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public int getRetainedCount() {
+		return retained.size();
+	}
+
+	/*
+	 * Number of messages published to the broker
+	 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/*
+	 * Number of messages handed to subscribers, a message has as many
+	 * deliveries as matching subscribers
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Returns true if the topic filter, which may contain wildcards,
+	 * matches the topic. The wildcards at the first level do not match
+	 * the topics starting with $.
+	 */
+	public static boolean matches(String topicFilter, String topic) {
+		String[] filterLevels = topicFilter.split("/", -1);
+		String[] topicLevels = topic.split("/", -1);
+		if(topic.startsWith("$") && (filterLevels[0].equals(SINGLE_LEVEL)
+				|| filterLevels[0].equals(MULTI_LEVEL))) {
+			return false;
+		}
+		for(int i = 0; i < filterLevels.length; i++) {
+			if(filterLevels[i].equals(MULTI_LEVEL)) {
+				return true;
+			}
+			if(i == topicLevels.length) {
+				return false;
+			}
+			if(!filterLevels[i].equals(SINGLE_LEVEL) && !filterLevels[i].equals(topicLevels[i])) {
+				return false;
+			}
+		}
+		return filterLevels.length == topicLevels.length;
+	}
+
+	private void publish(String topic, MqttMessage message) {
+		if(topic.contains(SINGLE_LEVEL) || topic.contains(MULTI_LEVEL)) {
+			throw new IllegalArgumentException("The topic name must not contain wildcards: "+topic);
+		}
+		publishedCount.incrementAndGet();
+		// the publisher may reuse its buffer
+		byte[] payload = message.getPayload().clone();
+		if(message.isRetained()) {
+			if(payload.length == 0) {
+				retained.remove(topic);
+			} else {
+				MqttMessage kept = new MqttMessage(payload);
+				kept.setQos(message.getQos());
+				retained.put(topic, kept);
+			}
+		}
+
+		Map<Connection, Integer> subscribers = new HashMap<Connection, Integer>();
+		collect(subscriptions, topic.split("/", -1), 0, subscribers);
+		for(Map.Entry<Connection, Integer> subscriber : subscribers.entrySet()) {
+			subscriber.getKey().deliver(topic, payload,
+					Math.min(message.getQos(), subscriber.getValue()), false);
+		}
+	}
+
+	/*
+	 * Adds the subscribers of the filters matching the topic below the
+	 * node, with the highest QoS they subscribed with, a client gets a
+	 * message once even if several of its filters match
+	 */
+	private static void collect(TopicNode node, String[] levels, int level,
+			Map<Connection, Integer> subscribers) {
+		boolean wildcards = level > 0 || !levels[0].startsWith("$");
+		if(wildcards) {
+			TopicNode multiLevel = node.children.get(MULTI_LEVEL);
+			if(multiLevel != null) {
+				addAll(multiLevel, subscribers);
+			}
+		}
+		if(level == levels.length) {
+			addAll(node, subscribers);
+			return;
+		}
+		TopicNode child = node.children.get(levels[level]);
+		if(child != null) {
+			collect(child, levels, level + 1, subscribers);
+		}
+		if(wildcards) {
+			TopicNode singleLevel = node.children.get(SINGLE_LEVEL);
+			if(singleLevel != null) {
+				collect(singleLevel, levels, level + 1, subscribers);
+			}
+		}
+	}
+
+	private static void addAll(TopicNode node, Map<Connection, Integer> subscribers) {
+		for(Map.Entry<Connection, Integer> subscriber : node.subscribers.entrySet()) {
+			add(subscriber.getKey(), subscriber.getValue(), subscribers);
+		}
+		for(SharedGroup group : node.groups.values()) {
+			group.pick(subscribers);
+		}
+	}
+
+	private static void add(Connection connection, int qos, Map<Connection, Integer> subscribers) {
+		Integer granted = subscribers.get(connection);
+		if(granted == null || granted < qos) {
+			subscribers.put(connection, qos);
+		}
+	}
+
+	/*
+	 * Returns the group of a shared subscription, null for the others
+	 */
+	private static String shareName(String topicFilter) {
+		if(!topicFilter.startsWith(SHARED_PREFIX)) {
+			return null;
+		}
+		int end = topicFilter.indexOf('/', SHARED_PREFIX.length());
+		return end < 0 ? null : topicFilter.substring(SHARED_PREFIX.length(), end);
+	}
+
+	private void subscribe(String topicFilter, Connection connection, int qos) {
+		String shareName = shareName(topicFilter);
+		if(shareName == null) {
+			node(topicFilter).subscribers.put(connection, qos);
+			return;
+		}
+		TopicNode node = node(topicFilter.substring(SHARED_PREFIX.length() + shareName.length() + 1));
+		SharedGroup group = node.groups.get(shareName);
+		if(group == null) {
+			SharedGroup created = new SharedGroup();
+			group = node.groups.putIfAbsent(shareName, created);
+			if(group == null) {
+				group = created;
+			}
+		}
+		group.add(connection, qos);
+	}
+
+	private void unsubscribe(String topicFilter, Connection connection) {
+		String shareName = shareName(topicFilter);
+		if(shareName == null) {
+			node(topicFilter).subscribers.remove(connection);
+			return;
+		}
+		TopicNode node = node(topicFilter.substring(SHARED_PREFIX.length() + shareName.length() + 1));
+		SharedGroup group = node.groups.get(shareName);
+		if(group != null) {
+			group.remove(connection);
+		}
+	}
+
+	private TopicNode node(String topicFilter) {
+		TopicNode node = subscriptions;
+		for(String level : topicFilter.split("/", -1)) {
+			TopicNode child = node.children.get(level);
+			if(child == null) {
+				TopicNode created = new TopicNode();
+				child = node.children.putIfAbsent(level, created);
+				if(child == null) {
+					child = created;
+				}
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	private static final class TopicNode {
+		private final ConcurrentHashMap<String, TopicNode> children =
+				new ConcurrentHashMap<String, TopicNode>();
+		/* QoS of the subscribers whose filter ends at this level */
+		private final ConcurrentHashMap<Connection, Integer> subscribers =
+				new ConcurrentHashMap<Connection, Integer>();
+		/* shared subscriptions whose filter ends at this level, by group */
+		private final ConcurrentHashMap<String, SharedGroup> groups =
+				new ConcurrentHashMap<String, SharedGroup>();
+	}
+
+	private static final class SharedGroup {
+		/* replaced on change, the publishers pick from it without a lock */
+		private volatile Member[] members = new Member[0];
+		private final AtomicInteger next = new AtomicInteger();
+
+		private synchronized void add(Connection connection, int qos) {
+			remove(connection);
+			Member[] members = Arrays.copyOf(this.members, this.members.length + 1);
+			members[members.length - 1] = new Member(connection, qos);
+			this.members = members;
+		}
+
+		private synchronized void remove(Connection connection) {
+			Member[] members = this.members;
+			for(int i = 0; i < members.length; i++) {
+				if(members[i].connection == connection) {
+					Member[] remaining = new Member[members.length - 1];
+					System.arraycopy(members, 0, remaining, 0, i);
+					System.arraycopy(members, i + 1, remaining, i, remaining.length - i);
+					this.members = remaining;
+					return;
+				}
+			}
+		}
+
+		/*
+		 * Adds the next member of the group, round robin
+		 */
+		private void pick(Map<Connection, Integer> subscribers) {
+			Member[] members = this.members;
+			if(members.length == 0) {
+				return;
+			}
+			Member member = members[(next.getAndIncrement() & Integer.MAX_VALUE) % members.length];
+			LoopbackBroker.add(member.connection, member.qos, subscribers);
+		}
+	}
+
+	private static final class Member {
+		private final Connection connection;
+		private final int qos;
+
+		private Member(Connection connection, int qos) {
+			this.connection = connection;
+			this.qos = qos;
+		}
+	}
+
+	private final class Connection implements MqttTransport {
+
+		private final String clientID;
+		private final Set<String> topicFilters =
+				Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		private volatile MqttCallback callback;
+		private volatile ExecutorService deliveries;
+
+		private Connection(String clientID) {
+			this.clientID = clientID;
+		}
+
+		@Override
+		public synchronized void connect() throws MqttException {
+			if(deliveries != null) {
+				throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+			}
+			deliveries = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name + "-" + clientID);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			Connection previous = connections.put(clientID, this);
+			if(previous != null) {
+				LOG.warn("Client "+clientID+" connected again, closing its previous connection");
+				previous.lost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+			}
+		}
+
+		@Override
+		public void disconnect() throws MqttException {
+			connected();
+			connections.remove(clientID, this);
+			drop();
+		}
+
+		@Override
+		public void close() throws MqttException {
+			if(isConnected()) {
+				throw new MqttException(MqttException.REASON_CODE_CLIENT_CONNECTED);
+			}
+		}
+
+		@Override
+		public boolean isConnected() {
+			return deliveries != null;
+		}
+
+		@Override
+		public void setCallback(MqttCallback callback) {
+			this.callback = callback;
+		}
+
+		@Override
+		public void subscribe(String[] topicFilters, int[] qos) throws MqttException {
+			connected();
+			for(int i = 0; i < topicFilters.length; i++) {
+				this.topicFilters.add(topicFilters[i]);
+				LoopbackBroker.this.subscribe(topicFilters[i], this, qos[i]);
+				if(shareName(topicFilters[i]) != null) {
+					// no retained messages for the shared subscriptions
+					continue;
+				}
+				for(Map.Entry<String, MqttMessage> message : retained.entrySet()) {
+					if(matches(topicFilters[i], message.getKey())) {
+						deliver(message.getKey(), message.getValue().getPayload(),
+								Math.min(qos[i], message.getValue().getQos()), true);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void unsubscribe(String topicFilter) throws MqttException {
+			connected();
+			topicFilters.remove(topicFilter);
+			LoopbackBroker.this.unsubscribe(topicFilter, this);
+		}
+
+		@Override
+		public void publish(String topic, MqttMessage message) throws MqttException {
+			publish(topic, message, null, null);
+		}
+
+		@Override
+		public void publish(String topic, MqttMessage message, Object userContext,
+				final IMqttActionListener listener) throws MqttException {
+			connected();
+			LoopbackBroker.this.publish(topic, message);
+			final MqttDeliveryToken token = new MqttDeliveryToken(clientID);
+			token.setUserContext(userContext);
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					if(listener != null) {
+						listener.onSuccess(token);
+					}
+					MqttCallback callback = Connection.this.callback;
+					if(callback != null) {
+						callback.deliveryComplete(token);
+					}
+				}
+			});
+		}
+
+		@Override
+		public String getServerURI() {
+			return "loopback://" + name;
+		}
+
+		private void deliver(final String topic, byte[] payload, int qos, boolean retained) {
+			final MqttMessage message = new MqttMessage(payload);
+			message.setQos(qos);
+			message.setRetained(retained);
+			if(execute(new Runnable() {
+				@Override
+				public void run() {
+					MqttCallback callback = Connection.this.callback;
+					if(callback == null) {
+						return;
+					}
+					try {
+						callback.messageArrived(topic, message);
+					} catch (Exception e) {
+						LOG.error("Client "+clientID+" failed to process a message of "+topic, e);
+					}
+				}
+			})) {
+				deliveredCount.incrementAndGet();
+			}
+		}
+
+		/*
+		 * Returns false if the connection was closed meanwhile
+		 */
+		private boolean execute(Runnable task) {
+			ExecutorService executor = deliveries;
+			if(executor == null) {
+				return false;
+			}
+			try {
+				executor.execute(task);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		private void lost(final Throwable cause) {
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					MqttCallback callback = Connection.this.callback;
+					if(callback != null) {
+						callback.connectionLost(cause);
+					}
+				}
+			});
+			drop();
+		}
+
+		/*
+		 * Removes the subscriptions, the messages delivered already are
+		 * still handed to the callback
+		 */
+		private synchronized void drop() {
+			for(String topicFilter : topicFilters) {
+				LoopbackBroker.this.unsubscribe(topicFilter, this);
+			}
+			topicFilters.clear();
+			ExecutorService executor = deliveries;
+			deliveries = null;
+			if(executor != null) {
+				executor.shutdown();
+			}
+		}
+
+		private void connected() throws MqttException {
+			if(deliveries == null) {
+				throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+			}
+		}
+	}
+}
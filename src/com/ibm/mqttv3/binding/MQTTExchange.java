@@ -193,7 +193,9 @@ public class MQTTExchange {
 				request.getRequestorApplicationID() + "/" +
 				request.getMessageID();
 		
-		mqttClient.publish(topic, response.getMessage());
+		// answer in the framing the request was sent with
+		mqttClient.publish(topic, response.getMessageAsBytes(request.getFraming()),
+				mqttClient.getQosPolicy().getQos(request, response));
 		
 	}
 	
@@ -202,6 +204,10 @@ public class MQTTExchange {
 	}
 
 
+	public MQTTWrapper getMqttClient() {
+		return this.mqttClient;
+	}
+
 	public void setMqttClient(MQTTWrapper mqttClinet) {
 		this.mqttClient = mqttClinet;
 		
@@ -24,13 +24,28 @@ public class MQTTResource implements Resource {
 	/* The parent of this resource. */
 	private Resource parent;
 	
+	/* The index of the tree, held by the root resource only */
+	private final ResourceIndex index;
+	
 	/**
 	 * Constructs a new resource with the specified id.
 	 *
 	 * @param id the id
 	 */
 	public MQTTResource(String id) {
+		this(id, null);
+	}
+	
+	/**
+	 * Constructs a root resource which maintains the given index of
+	 * the resources added below it.
+	 *
+	 * @param id the id
+	 * @param index the index
+	 */
+	protected MQTTResource(String id, ResourceIndex index) {
 		this.id = id;
+		this.index = index;
 		this.children = new ConcurrentHashMap<String, Resource>();
 	}
 	
@@ -71,6 +86,7 @@ public class MQTTResource implements Resource {
 			child.getParent().remove(child);
 		children.put(child.getName(), child);
 		child.setParent(this);
+		updateIndex(child, child.getName(), true);
 	}
 	
 	/**
@@ -114,7 +130,64 @@ public class MQTTResource implements Resource {
 	 * @return the removed resource or null
 	 */
 	public synchronized Resource remove(String id) {
-		return children.remove(id);
+		Resource removed = children.remove(id);
+		if (removed != null) {
+			updateIndex(removed, id, false);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns the index of the tree if this is its root, otherwise null
+	 */
+	public ResourceIndex getIndex() {
+		return index;
+	}
+	
+	/*
+	 * Adds or removes the subtree of the given child to or from the index
+	 * of the root this resource is attached to, if any
+	 */
+	private void updateIndex(Resource child, String name, boolean add) {
+		int depth = 0;
+		Resource root = this;
+		while (root.getParent() != null) {
+			root = root.getParent();
+			depth++;
+		}
+		if (!(root instanceof MQTTResource) || ((MQTTResource) root).index == null || depth >= 3) {
+			return;
+		}
+		int[] ids = new int[3];
+		Resource resource = this;
+		for (int level = depth; level > 0; level--) {
+			ids[level - 1] = ResourceIndex.idOf(resource.getName());
+			if (ids[level - 1] < 0) {
+				return;
+			}
+			resource = resource.getParent();
+		}
+		updateIndex(((MQTTResource) root).index, ids, depth + 1, child, name, add);
+	}
+	
+	private static void updateIndex(ResourceIndex index, int[] ids, int depth, 
+			Resource resource, String name, boolean add) {
+		int id = ResourceIndex.idOf(name);
+		if (id < 0) {
+			return;
+		}
+		ids[depth - 1] = id;
+		long key = ResourceIndex.key(ids[0], depth >= 2 ? ids[1] : -1, depth >= 3 ? ids[2] : -1);
+		if (add) {
+			index.put(key, resource);
+		} else {
+			index.remove(key, resource);
+		}
+		if (depth < 3) {
+			for (Resource child : resource.getChildren()) {
+				updateIndex(index, ids, depth + 1, child, child.getName(), add);
+			}
+		}
 	}
 	
 	/**
@@ -1,47 +1,107 @@
 package com.ibm.mqttv3.binding;
 
 import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.eclipse.paho.client.mqttv3.IMqttClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 public class MQTTWrapper {
 	private static final Logger LOG = LoggerFactory.getLogger(MQTTWrapper.class);
 	
 	private static int QOS = 2;
 	
-	// "tcp://localhost:1800";
-    private final InetSocketAddress brokerAddress;
+	/* Paho refuses more unacknowledged messages than this per connection */
+	public static final int PAHO_MAX_INFLIGHT = 10;
+	
+	/* max number of requests of a connection waiting for their response */
+	public static final int MAX_PENDING_REQUESTS = 1 << 20;
+	
+	/* default max number of messages waiting for a free in-flight slot */
+	public static final int DEFAULT_MAX_BACKLOG = 100000;
+	
     private final String endpointID;
     
     /* root resource */
-    private final Resource root;
+    private final MQTTResource root;
+    
+    /* 
+     * roots of the devices hosted on this connection besides the root
+     * resource, by endpoint ID, a request is routed to the tree of the 
+     * endpoint in its topic
+     */
+    private final ConcurrentHashMap<String, MQTTResource> hostedRoots = 
+    		new ConcurrentHashMap<String, MQTTResource>();
     
-	private IMqttClient mqttClient = null;
+	/* the connection to the broker */
+	private final MqttTransport mqttClient;
 	private MqttCallback callback;
+	private volatile QosPolicy qosPolicy = new QosPolicy();
+	
+	/*
+	 * In the asynchronous publish mode up to maxInflight messages are
+	 * handed to the transport without waiting for their acknowledgement,
+	 * the others wait in the backlog until deliveryComplete frees a slot.
+	 * 0 means every publish waits for its acknowledgement. Once the backlog
+	 * is full, a publish fails right away instead of waiting, as it may be
+	 * called from the threads the acknowledgements need.
+	 */
+	private volatile int maxInflight = 0;
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final Queue<PublishFuture> backlog = new ConcurrentLinkedQueue<PublishFuture>();
+	private final AtomicInteger backlogSize = new AtomicInteger();
+	private volatile int maxBacklog = DEFAULT_MAX_BACKLOG;
+	
+	/* observers of the requests sent on this connection, by message-id */
+	private final CorrelationTable<AbstractRequestObserver> pendingRequests = 
+			new CorrelationTable<AbstractRequestObserver>(MAX_PENDING_REQUESTS);
+	
+	private final IMqttActionListener publishListener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken token) {
+			// completed through deliveryComplete
+		}
+
+		@Override
+		public void onFailure(IMqttToken token, Throwable exception) {
+			Object context = token.getUserContext();
+			if(context instanceof PublishFuture) {
+				LOG.error("publish to "+((PublishFuture) context).getTopic()+" failed", exception);
+				if(((PublishFuture) context).fail(exception)) {
+					releaseSlot();
+				}
+			}
+		}
+	};
 
 	public MQTTWrapper(InetSocketAddress brokerAddress, String endpointID) {
-		this.brokerAddress = brokerAddress;
+		this(new PahoTransport(brokerAddress, endpointID), endpointID);
+	}
+	
+	/**
+	 * Connects through the given transport, e.g. one of a
+	 * {@link LoopbackBroker}
+	 */
+	public MQTTWrapper(MqttTransport transport, String endpointID) {
+		this.mqttClient = transport;
 		this.endpointID = endpointID;
 		this.root = new RootResource();
 	}
 
 	public void start() {
-		MemoryPersistence persistence = new MemoryPersistence();
 		try {
-			String serverURI = "tcp://"+brokerAddress.getHostString()+":"+brokerAddress.getPort();
-			mqttClient = new MqttClient(serverURI, endpointID, persistence);
-            MqttConnectOptions connOpts = new MqttConnectOptions();
-            connOpts.setCleanSession(true);
-            LOG.info("Connecting endpoint "+ endpointID + " to broker: "+serverURI);
-            mqttClient.connect(connOpts);
+            LOG.info("Connecting endpoint "+ endpointID + " to broker: "+mqttClient.getServerURI());
+            mqttClient.connect();
             LOG.info("Connected");
 		} catch(MqttException me) {
             LOG.error("reason "+me.getReasonCode());
@@ -75,7 +135,7 @@ public class MQTTWrapper {
 	public void subscribe(String topic, int qos) {
 		try {
 			LOG.info("Subscribe to :: "+ topic);
-			mqttClient.subscribe(topic, qos);
+			mqttClient.subscribe(new String[] { topic }, new int[] { qos });
 		} catch (MqttException me) {
 			LOG.error("reason "+me.getReasonCode());
 			LOG.error("msg "+me.getMessage());
@@ -86,6 +146,18 @@ public class MQTTWrapper {
 		}
 	}
 	
+	public void unsubscribe(String topic) {
+		try {
+			LOG.info("Unsubscribe from :: "+ topic);
+			mqttClient.unsubscribe(topic);
+		} catch (MqttException me) {
+			LOG.error("reason "+me.getReasonCode());
+			LOG.error("msg "+me.getMessage());
+			LOG.error("cause "+me.getCause());
+			me.printStackTrace();
+		}
+	}
+	
 	public void subscribe(String[] topics, int[] qos) {
 		try {
 			for(int i = 0; i < topics.length; i++) {
@@ -103,19 +175,189 @@ public class MQTTWrapper {
 	}
 	
 	public void publish(String topic, String content) {
-		try {
-			MqttMessage message = new MqttMessage(content.getBytes());
-            message.setQos(QOS);
-            LOG.info("publish :: {"+topic+" ["+message+" ]}");
-			mqttClient.publish(topic, message);
-		} catch (MqttException me) {
-			LOG.error("reason "+me.getReasonCode());
-			LOG.error("msg "+me.getMessage());
-			LOG.error("loc "+me.getLocalizedMessage());
-			LOG.error("cause "+me.getCause());
-			LOG.error("excep "+me);
-            me.printStackTrace();
+		publish(topic, content.getBytes());
+	}
+	
+	/**
+	 * Publishes the payload, in the asynchronous publish mode this
+	 * returns without waiting for the acknowledgement
+	 */
+	public void publish(String topic, byte[] payload) {
+		publishAsync(topic, payload, QOS);
+	}
+	
+	public void publish(String topic, byte[] payload, int qos) {
+		publishAsync(topic, payload, qos);
+	}
+	
+	/**
+	 * Publishes the request at the QoS the policy chooses for its kind
+	 */
+	public PublishFuture publish(Request request) {
+		return publishAsync(request.getTopic(), request.getMessageAsBytes(), 
+				qosPolicy.getQos(request));
+	}
+	
+	public PublishFuture publishAsync(String topic, byte[] payload) {
+		return publishAsync(topic, payload, QOS);
+	}
+	
+	/**
+	 * Publishes the payload and returns a future which completes once the
+	 * message is acknowledged. In the synchronous mode the publish has 
+	 * completed already when this returns.
+	 */
+	public PublishFuture publishAsync(String topic, byte[] payload, int qos) {
+		return publishAsync(topic, payload, qos, false);
+	}
+	
+	/**
+	 * Publishes a message the broker keeps for the subscribers to come,
+	 * an empty payload clears the retained message of the topic
+	 */
+	public PublishFuture publishRetained(String topic, byte[] payload, int qos) {
+		return publishAsync(topic, payload, qos, true);
+	}
+	
+	private PublishFuture publishAsync(String topic, byte[] payload, int qos, boolean retained) {
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(qos);
+		message.setRetained(retained);
+		LOG.info("publish :: {"+topic+" ["+message+" ]}");
+		PublishFuture future = new PublishFuture(topic, message);
+		
+		if(maxInflight == 0) {
+			try {
+				mqttClient.publish(topic, message);
+				future.succeed();
+			} catch (MqttException me) {
+				LOG.error("reason "+me.getReasonCode());
+				LOG.error("msg "+me.getMessage());
+				LOG.error("loc "+me.getLocalizedMessage());
+				LOG.error("cause "+me.getCause());
+				LOG.error("excep "+me);
+	            me.printStackTrace();
+	            future.fail(me);
+			}
+			return future;
 		}
+		
+		if(backlogSize.incrementAndGet() > maxBacklog) {
+			backlogSize.decrementAndGet();
+			LOG.warn("publish to "+topic+" failed, the backlog of "+maxBacklog+" messages is full");
+			future.fail(new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT));
+			return future;
+		}
+		backlog.add(future);
+		drainBacklog();
+		return future;
+	}
+	
+	/*
+	 * Hands messages of the backlog to the transport while there are free
+	 * slots, never blocks so it can be called from the callback thread
+	 */
+	private void drainBacklog() {
+		for(;;) {
+			int n = inflight.get();
+			if(n >= maxInflight) {
+				return;
+			}
+			if(!inflight.compareAndSet(n, n + 1)) {
+				continue;
+			}
+			PublishFuture future = backlog.poll();
+			if(future == null) {
+				inflight.decrementAndGet();
+				// someone might have queued while we held the slot
+				if(backlog.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+			backlogSize.decrementAndGet();
+			try {
+				mqttClient.publish(future.getTopic(), future.getMessage(), future, publishListener);
+			} catch (MqttException me) {
+				LOG.error("publish to "+future.getTopic()+" failed, reason "+me.getReasonCode(), me);
+				future.fail(me);
+				inflight.decrementAndGet();
+			}
+		}
+	}
+	
+	private void releaseSlot() {
+		inflight.decrementAndGet();
+		drainBacklog();
+	}
+	
+	/**
+	 * Completes the future of an asynchronously published message, to be
+	 * called from the deliveryComplete() of the MqttCallback
+	 */
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		Object context = token.getUserContext();
+		if(context instanceof PublishFuture && ((PublishFuture) context).succeed()) {
+			releaseSlot();
+		}
+	}
+	
+	/**
+	 * Switches to the asynchronous publish mode with at most the given number
+	 * of unacknowledged messages, 0 (the default) publishes synchronously.
+	 * To be called before start().
+	 */
+	public void setMaxInflight(int maxInflight) {
+		if(maxInflight < 0) {
+			throw new IllegalArgumentException("maxInflight must not be negative: "+maxInflight);
+		}
+		if(maxInflight > PAHO_MAX_INFLIGHT) {
+			LOG.warn("max inflight "+maxInflight+" exceeds the limit of the MQTT client, using "+PAHO_MAX_INFLIGHT);
+			maxInflight = PAHO_MAX_INFLIGHT;
+		}
+		this.maxInflight = maxInflight;
+		drainBacklog();
+	}
+	
+	public QosPolicy getQosPolicy() {
+		return qosPolicy;
+	}
+	
+	public void setQosPolicy(QosPolicy qosPolicy) {
+		this.qosPolicy = qosPolicy;
+	}
+	
+	public int getMaxInflight() {
+		return maxInflight;
+	}
+	
+	/*
+	 * Number of messages handed to the transport and not acknowledged yet
+	 */
+	public int getInflightCount() {
+		return inflight.get();
+	}
+	
+	/*
+	 * Number of messages waiting for a free in-flight slot
+	 */
+	public int getBacklogSize() {
+		return backlogSize.get();
+	}
+	
+	/**
+	 * Sets the max number of messages waiting for a free in-flight slot in
+	 * the asynchronous publish mode, the publishes beyond it fail
+	 */
+	public void setMaxBacklog(int maxBacklog) {
+		if(maxBacklog <= 0) {
+			throw new IllegalArgumentException("maxBacklog must be greater than 0: "+maxBacklog);
+		}
+		this.maxBacklog = maxBacklog;
+	}
+	
+	public int getMaxBacklog() {
+		return maxBacklog;
 	}
 	
 	public MQTTWrapper add(Resource... resources) {
@@ -131,6 +373,63 @@ public class MQTTWrapper {
 		return root;
 	}
 	
+	/**
+	 * Returns the index of the resources added below the root
+	 */
+	public ResourceIndex getResourceIndex() {
+		return root.getIndex();
+	}
+	
+	/**
+	 * Creates the root of a device hosted on this connection, with a
+	 * resource tree of its own. The requests whose topic names the
+	 * endpoint are routed to it instead of the root resource.
+	 * 
+	 * @throws IllegalStateException if the endpoint is hosted already
+	 */
+	public MQTTResource host(String endpointID) {
+		MQTTResource hostedRoot = new RootResource();
+		if(hostedRoots.putIfAbsent(endpointID, hostedRoot) != null) {
+			throw new IllegalStateException("Endpoint "+endpointID+" is hosted already");
+		}
+		return hostedRoot;
+	}
+	
+	/**
+	 * Removes the resource tree of a hosted device
+	 */
+	public void unhost(String endpointID) {
+		hostedRoots.remove(endpointID);
+	}
+	
+	public boolean isHosting(String endpointID) {
+		return endpointID != null && hostedRoots.containsKey(endpointID);
+	}
+	
+	/**
+	 * Returns the root of the given hosted device, or the root resource
+	 * if the endpoint is not hosted on this connection
+	 */
+	public MQTTResource getRoot(String endpointID) {
+		MQTTResource hostedRoot = endpointID == null ? null : hostedRoots.get(endpointID);
+		return hostedRoot == null ? root : hostedRoot;
+	}
+	
+	/*
+	 * Number of devices hosted on this connection
+	 */
+	public int getHostedCount() {
+		return hostedRoots.size();
+	}
+	
+	/**
+	 * Returns the observers of the requests sent on this connection which
+	 * wait for a response, by message-id
+	 */
+	public CorrelationTable<AbstractRequestObserver> getPendingRequests() {
+		return pendingRequests;
+	}
+	
 	public MqttCallback getMqttCallback() {
 		return this.callback;
 	}
@@ -138,7 +437,7 @@ public class MQTTWrapper {
 	private class RootResource extends MQTTResource {
 		
 		public RootResource() {
-			super("");
+			super("", new ResourceIndex());
 		}
 		
 		@Override
@@ -1,29 +1,29 @@
 package com.ibm.mqttv3.binding;
 
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Allocates the message-ids of the requests, never negative. After
+ * Long.MAX_VALUE the ids start over at 0, without a lock.
+ *
+ * The ids start at the current time in milliseconds times 1024, so the
+ * ids of a restarted requestor are above the ones it used before unless
+ * it allocated more than 1024 ids per millisecond on average. The devices
+ * remember the recent ids of a requestor to drop duplicates, an id used
+ * again would drop a new request without response. The ids stay below
+ * 2^53 for centuries, exact in the JSON of the notification batches.
+ */
 public class MessageID {
-	private static AtomicLong value = new AtomicLong();
-	private static Lock roundOffLock = new ReentrantLock();
+	private static final AtomicLong value = new AtomicLong(System.currentTimeMillis() << 10);
 	
 	public static long get() {
-		long val = value.getAndIncrement();
-		
-		if(val < 0) {
-			try {
-				roundOffLock.lock();
-				if((val = value.getAndIncrement()) < 0) {
-					value.set(0);
-					val = value.getAndIncrement();
-				}
-				
-			} finally {
-				roundOffLock.unlock();
+		for(;;) {
+			long val = value.get();
+			long next = val == Long.MAX_VALUE ? 0 : val + 1;
+			if(value.compareAndSet(val, next)) {
+				return val;
 			}
 		}
-		return val;
 	}
 	
 
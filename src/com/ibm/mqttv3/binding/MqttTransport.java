@@ -0,0 +1,67 @@
+package com.ibm.mqttv3.binding;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * The connection of a {@link MQTTWrapper} to the broker.
+ *
+ * {@link PahoTransport} connects to a broker over the network, the
+ * {@link LoopbackBroker} connects the servers and clients of one JVM in
+ * memory, for benchmarks and tests without a broker.
+ *
+ * The messages and the acknowledgements are handed to the callback on a
+ * thread of the transport, one at a time, as the Paho client does.
+ */
+public interface MqttTransport {
+
+	/**
+	 * Connects with a clean session and waits until the broker accepted
+	 * the connection
+	 */
+	void connect() throws MqttException;
+
+	void disconnect() throws MqttException;
+
+	/**
+	 * Releases the resources of a disconnected transport
+	 */
+	void close() throws MqttException;
+
+	boolean isConnected();
+
+	/**
+	 * Sets the callback of the messages arriving on the subscriptions and
+	 * of the acknowledgements, may be called before connect()
+	 */
+	void setCallback(MqttCallback callback);
+
+	/**
+	 * Subscribes to the topic filters and waits until the broker granted
+	 * the subscriptions
+	 */
+	void subscribe(String[] topicFilters, int[] qos) throws MqttException;
+
+	void unsubscribe(String topicFilter) throws MqttException;
+
+	/**
+	 * Publishes the message and waits until it is acknowledged according
+	 * to its QoS
+	 */
+	void publish(String topic, MqttMessage message) throws MqttException;
+
+	/**
+	 * Hands the message over without waiting, deliveryComplete() of the
+	 * callback receives a token with the given context once the message
+	 * is acknowledged, the listener is told when the publish fails
+	 */
+	void publish(String topic, MqttMessage message, Object userContext, 
+			IMqttActionListener listener) throws MqttException;
+
+	/**
+	 * Returns the URI of the broker, for the logs
+	 */
+	String getServerURI();
+}
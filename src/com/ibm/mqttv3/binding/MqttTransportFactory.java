@@ -0,0 +1,15 @@
+package com.ibm.mqttv3.binding;
+
+/**
+ * Creates the transports of the connections a server or a client opens,
+ * all of them to the same broker.
+ */
+public interface MqttTransportFactory {
+
+	/**
+	 * Returns a new, not yet connected, transport
+	 * 
+	 * @param clientID the MQTT client identifier, unique on the broker
+	 */
+	MqttTransport create(String clientID);
+}
@@ -1,7 +1,7 @@
 package com.ibm.mqttv3.binding;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,58 +11,231 @@ import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import com.ibm.mqttv3.binding.HashedWheelTimer.Timeout;
+import com.ibm.mqttv3.binding.HashedWheelTimer.TimerTask;
 import com.ibm.mqttv3.binding.MQTT.Operation;
+import com.ibm.mqttv3.binding.StripedDispatcher.OverloadPolicy;
+import com.ibm.mqttv3.binding.StripedDispatcher.Priority;
 
 public class MqttV3MessageReceiver implements MqttCallback {
 
 	private MQTTWrapper mqttClient;
 	private static final Logger LOG = LoggerFactory.getLogger(MqttV3MessageReceiver.class);
-	private static ConcurrentHashMap<Long, AbstractRequestObserver> requestObservers = new ConcurrentHashMap();
-	private static ScheduledThreadPoolExecutor executor = 
-			new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors() + 1);
+	
+	/* the pending requests of the connection this receiver belongs to */
+	private final CorrelationTable<AbstractRequestObserver> requestObservers;
+	
+	/*
+	 * Messages are dispatched on lanes keyed by the endpoint ID of the
+	 * device, to keep the messages of a device in order
+	 */
+	private static final StripedDispatcher dispatcher = 
+			new StripedDispatcher("mqtt-dispatch", Runtime.getRuntime().availableProcessors() + 1);
+	
+	/* resource of the registration interface */
+	private static final String RD_RESOURCE = "rd";
+	
+	/* seconds a rejected requestor is told to wait before retrying */
+	private static volatile int retryAfterSeconds = 30;
+	
+	/* 
+	 * One timing wheel owns the deadlines of all pending requests, a tick
+	 * of 100ms is precise enough for request timeouts of a few seconds
+	 */
+	private static final HashedWheelTimer timer = 
+			new HashedWheelTimer("mqtt-request-timer", 100, TimeUnit.MILLISECONDS, 512);
+	
+	private final AtomicLong timedOutRequests = new AtomicLong();
+	private final AtomicLong lateResponses = new AtomicLong();
+	
+	/* writes and executes which the broker delivered twice at QoS 1 */
+	private final DuplicateFilter duplicateFilter = new DuplicateFilter();
 	
 	public MqttV3MessageReceiver(MQTTWrapper mqttClient) {
 		this.mqttClient = mqttClient;
+		this.requestObservers = mqttClient.getPendingRequests();
 	}
 	
 	@Override
 	public void messageArrived(final String topic, final MqttMessage message)
 			throws Exception {
 		
-		executor.execute(new Runnable() {
-			public void run() {
-				try {
+		if(topic.startsWith(Request.RESPONSE_TOPIC_STARTER) && 
+				NotificationBatch.isBatchTopic(topic)) {
+			handleBatch(topic, message);
+			return;
+		}
+		
+		if(topic.startsWith(Request.RESPONSE_TOPIC_STARTER)) {
+			long messageID = Response.parseMessageID(topic);
+			if(messageID < 0) {
+				LOG.warn("Ignoring response without message-id on "+topic);
+				return;
+			}
+			AbstractRequestObserver requestObserver = requestObservers.get(messageID);
+			if(requestObserver == null) {
+				// the request timed out already or was never sent by us,
+				// dropped before it takes room in a lane or gets parsed
+				lateResponses.incrementAndGet();
+				return;
+			}
+			
+			// a response belongs to the device the request was sent to
+			dispatch(getResponseKey(topic, requestObserver), 
+					getResponsePriority(requestObserver), new Runnable() {
+				public void run() {
 					handleMessage(topic, message);
-				} catch (Throwable t) {
-					t.printStackTrace();
 				}
+			});
+			return;
+		}
+		
+		// a request belongs to the device which sent it, or to the device
+		// it is sent to when several devices share this connection
+		final Request request;
+		try {
+			request = new Request(topic, message);
+		} catch (RuntimeException e) {
+			LOG.warn("Dropping malformed request on "+topic, e);
+			return;
+		}
+		String key = mqttClient.isHosting(request.getEndpointId()) ? 
+				request.getEndpointId() : request.getRequestorEndpointID();
+		boolean queued = dispatch(key, getRequestPriority(request), new Runnable() {
+			public void run() {
+				LOG.info("MSG { "+topic + " ["+message.toString()+"]}");
+				handleRequest(request);
 			}
 		});
+		if(!queued) {
+			// the lane is full, tell the device to come back later, unless
+			// the lane holds as many rejections already, then it times out
+			dispatch(key, Priority.HIGH, new Runnable() {
+				public void run() {
+					LOG.debug("Rejecting request "+request);
+					MQTTExchange exchange = new MQTTExchange(request, null);
+					exchange.setMqttClient(mqttClient);
+					exchange.respond(Response.serviceUnavailable(retryAfterSeconds));
+				}
+			});
+		}
 	}
 	
+	/*
+	 * Queues the task on the lane of the key. The callback thread waits for
+	 * room in a full lane only if this connection publishes asynchronously,
+	 * a lane publishing synchronously needs the callback thread to get its
+	 * acknowledgements, see StripedDispatcher.
+	 */
+	private boolean dispatch(Object key, Priority priority, Runnable task) {
+		return dispatcher.dispatch(key, priority, task, mqttClient.getMaxInflight() > 0);
+	}
+	
+	/*
+	 * Unpacks the notifications a client sent in one message and routes each
+	 * one to its observation, on the lane of the device like a single one
+	 */
+	private void handleBatch(String topic, MqttMessage message) {
+		NotificationBatch batch;
+		try {
+			batch = NotificationBatch.decode(message.getPayload());
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Dropping malformed notification batch on "+topic, e);
+			return;
+		}
+		for (NotificationBatch.Record record : batch.getRecords()) {
+			final long messageID = record.getMessageID();
+			AbstractRequestObserver requestObserver = requestObservers.get(messageID);
+			if(requestObserver == null) {
+				lateResponses.incrementAndGet();
+				continue;
+			}
+			final Response response = new Response(ResponseCode.CHANGED);
+			response.setPayload(record.getValue());
+			dispatch(getResponseKey(topic, requestObserver), 
+					getResponsePriority(requestObserver), new Runnable() {
+				public void run() {
+					handleResponse(messageID, response);
+				}
+			});
+		}
+	}
+	
+	/*
+	 * Responses to pending requests go ahead, observations only expect 
+	 * notifications and those are the first to be shed under load
+	 */
+	private static Priority getResponsePriority(AbstractRequestObserver requestObserver) {
+		return (requestObserver != null && requestObserver.hasTimeout()) ? 
+				Priority.HIGH : Priority.LOW;
+	}
 	
+	/*
+	 * A deregistration frees resources, so it is never held back
+	 */
+	private static Priority getRequestPriority(Request request) {
+		if(request.getOperation() == Operation.DELETE && 
+				RD_RESOURCE.equals(request.getObjectId())) {
+			return Priority.HIGH;
+		}
+		return Priority.NORMAL;
+	}
+	
+	private Object getResponseKey(String topic, AbstractRequestObserver requestObserver) {
+		if(requestObserver == null || requestObserver.mqttRequest == null) {
+			// nothing to keep in order with, it will be dropped anyway
+			return topic;
+		}
+		return requestObserver.mqttRequest.getEndpointId();
+	}
 
 	protected void handleMessage(String topic, MqttMessage message) {
 		LOG.info("MSG { "+topic + " ["+message.toString()+"]}");
 		
 		if(topic.startsWith(Request.RESPONSE_TOPIC_STARTER)) {
-			String[] paths = topic.split("/");
-			Long messageID = Long.valueOf(paths[paths.length - 1]);
-			// the last one must contain the message-id
-			AbstractRequestObserver requestObserver = 
-					requestObservers.get(messageID);
-			if(requestObserver != null) {
-				Response response = new Response(message);
-				if(ResponseCode.isSuccess(ResponseCode.valueOf(response.getCode()))) {
-					requestObserver.onResponse(response);
-				} else {
-					requestObserver.onError(response);
-				}
+			// the last level must contain the message-id
+			long messageID = Response.parseMessageID(topic);
+			if(messageID < 0) {
+				LOG.warn("Ignoring response without message-id on "+topic);
+				return;
 			}
+			handleResponse(messageID, new Response(message));
+			return;
+		}
+		
+		handleRequest(new Request(topic, message));
+	}
+	
+	private void handleResponse(long messageID, Response response) {
+		AbstractRequestObserver requestObserver = 
+				requestObservers.get(messageID);
+		if(requestObserver == null) {
+			// the request timed out already or was never sent by us
+			lateResponses.incrementAndGet();
+			return;
+		}
+		if(requestObserver.hasTimeout()) {
+			// a single response is expected, so race with the timer for the entry 
+			if(!requestObservers.remove(messageID, requestObserver)) {
+				lateResponses.incrementAndGet();
+				return;
+			}
+			requestObserver.cancelTimeout();
+		}
+		if(ResponseCode.isSuccess(response.getCodeAsInt())) {
+			requestObserver.onResponse(response);
+		} else {
+			requestObserver.onError(response);
+		}
+	}
+	
+	private void handleRequest(Request request) {
+		if(isDuplicate(request)) {
+			LOG.info("Dropping duplicate request "+request.getMessageID()+" of "
+					+request.getRequestorEndpointID());
 			return;
 		}
 		
-		Request request = new Request(topic, message);
 		MQTTExchange exchange = new MQTTExchange(request, null);
 		exchange.setMqttClient(this.mqttClient);
 		
@@ -106,7 +279,15 @@ public class MqttV3MessageReceiver implements MqttCallback {
 	}
 
 	private Resource getResource(Request request) {
-		Resource resource = this.mqttClient.getRoot();
+		// numeric paths resolve in one probe of the index
+		long key = ResourceIndex.key(request.getObjectIdAsInt(),
+				request.getObjectInstanceIdAsInt(), request.getResourceIdAsInt());
+		MQTTResource root = this.mqttClient.getRoot(request.getEndpointId());
+		if(key != ResourceIndex.NO_KEY && isNumeric(request)) {
+			return root.getIndex().get(key);
+		}
+		
+		Resource resource = root;
 		LOG.debug(" root-resource:: "+resource);
 		
 		
@@ -133,8 +314,23 @@ public class MqttV3MessageReceiver implements MqttCallback {
 		return resource;
 	}
 	
+	/*
+	 * The int ids are -1 for a non numeric level as well, which the index
+	 * would take as absent
+	 */
+	private static boolean isNumeric(Request request) {
+		return (request.getObjectInstanceId() == null) == (request.getObjectInstanceIdAsInt() < 0)
+				&& (request.getResourceId() == null) == (request.getResourceIdAsInt() < 0);
+	}
+	
 	private Resource getParentResource(Request request) {
-		Resource resource = this.mqttClient.getRoot();
+		long key = ResourceIndex.key(request.getObjectIdAsInt(), -1, -1);
+		MQTTResource root = this.mqttClient.getRoot(request.getEndpointId());
+		if(key != ResourceIndex.NO_KEY) {
+			return root.getIndex().get(key);
+		}
+		
+		Resource resource = root;
 		LOG.debug(" root-resource:: "+resource);
 		
 		String id = request.getObjectId();
@@ -148,18 +344,114 @@ public class MqttV3MessageReceiver implements MqttCallback {
 		return resource;
 	}
 
-	public void addRequest(Long messageID,
+	public void addRequest(long messageID,
 			AbstractRequestObserver requestObserver) {
-		requestObservers.put(messageID, requestObserver);
+		put(messageID, requestObserver);
+	}
+	
+	/**
+	 * Adds a request which expects a single response within the given time.
+	 * 
+	 * If no response arrives in time, the request is removed and the
+	 * observer's onTimeout() is called from the timer thread. A response
+	 * arriving later is dropped and counted as late response.
+	 */
+	public void addRequest(final long messageID,
+			final AbstractRequestObserver requestObserver, long timeoutMillis) {
+		Timeout timeout = timer.newTimeout(new TimerTask() {
+			@Override
+			public void run(Timeout timeout) {
+				expire(messageID, requestObserver);
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		requestObserver.setTimeout(timeout);
+		try {
+			put(messageID, requestObserver);
+		} catch (IllegalStateException e) {
+			timeout.cancel();
+			throw e;
+		}
+		
+		// the deadline might have passed before the request got added
+		if(timeout.isExpired()) {
+			expire(messageID, requestObserver);
+		}
+	}
+	
+	/*
+	 * The table of a connection is bounded, a request beyond its capacity
+	 * is refused rather than sent without anyone waiting for the response
+	 */
+	private void put(long messageID, AbstractRequestObserver requestObserver) {
+		if(!requestObservers.put(messageID, requestObserver)) {
+			throw new IllegalStateException("Too many pending requests, at most "
+					+ requestObservers.capacity() + " per connection");
+		}
 	}
 	
-	public void removeRequest(Long messageID) {
+	private void expire(long messageID, AbstractRequestObserver requestObserver) {
+		if(requestObservers.remove(messageID, requestObserver)) {
+			timedOutRequests.incrementAndGet();
+			requestObserver.onTimeout();
+		}
+	}
+	
+	public void removeRequest(long messageID) {
 		requestObservers.remove(messageID);
 	}
+
+	/*
+	 * Removes the request only if it is still mapped to the given observer,
+	 * an observation might have taken over the message-id in the meantime
+	 */
+	public boolean removeRequest(long messageID, AbstractRequestObserver requestObserver) {
+		return requestObservers.remove(messageID, requestObserver);
+	}
 	
-	public AbstractRequestObserver getRequest(Long messageID) {
+	public AbstractRequestObserver getRequest(long messageID) {
 		return requestObservers.get(messageID);
 	}
+	
+	public int getPendingRequestCount() {
+		return requestObservers.size();
+	}
+	
+	/*
+	 * Only a request which is not idempotent and may be delivered more than
+	 * once, i.e. a write or an execute at QoS 1, is checked
+	 */
+	private boolean isDuplicate(Request request) {
+		QosPolicy.MessageKind kind = QosPolicy.kindOf(request);
+		if(kind != QosPolicy.MessageKind.WRITE && kind != QosPolicy.MessageKind.EXECUTE) {
+			return false;
+		}
+		// only a delivery at QoS 1 may be repeated, whatever QoS this side would publish with
+		if(request.getQos() != 1) {
+			return false;
+		}
+		return duplicateFilter.isDuplicate(request);
+	}
+	
+	/*
+	 * Number of duplicate writes and executes dropped
+	 */
+	public long getDuplicateRequestCount() {
+		return duplicateFilter.getDuplicateCount();
+	}
+	
+	/*
+	 * Number of requests evicted by the timer without a response
+	 */
+	public long getTimedOutRequestCount() {
+		return timedOutRequests.get();
+	}
+	
+	/*
+	 * Number of responses dropped because no request was waiting for them
+	 */
+	public long getLateResponseCount() {
+		return lateResponses.get();
+	}
 
 	
 	public void connectionLost(Throwable cause) {
@@ -169,8 +461,28 @@ public class MqttV3MessageReceiver implements MqttCallback {
 	}
 
 	public void deliveryComplete(IMqttDeliveryToken token) {
-		//System.out.println("DeliveryComplte :: "+token.toString());
-		
+		// completes the future of an asynchronous publish
+		mqttClient.deliveryComplete(token);
+	}
+	
+	/**
+	 * Configures the admission of inbound messages, shared by all the receivers.
+	 * 
+	 * @param laneCapacity max number of requests and notifications queued per lane
+	 * @param policy what to do with a request or notification when its lane is full
+	 * @param retryAfter seconds a rejected requestor is told to wait before retrying
+	 */
+	public static void configureAdmission(int laneCapacity, OverloadPolicy policy, int retryAfter) {
+		dispatcher.setCapacity(laneCapacity);
+		dispatcher.setOverloadPolicy(policy);
+		retryAfterSeconds = retryAfter;
+	}
+	
+	/*
+	 * The dispatcher shared by all the receivers, for its lane metrics 
+	 */
+	public static StripedDispatcher getDispatcher() {
+		return dispatcher;
 	}
 	
 	public MQTTWrapper getMqttClinet() {
@@ -179,8 +491,10 @@ public class MqttV3MessageReceiver implements MqttCallback {
 	}
 
 	public void cancel(long messageID) {
-		AbstractRequestObserver obs = this.requestObservers.get(messageID);
-		obs.onCancel();
+		AbstractRequestObserver obs = requestObservers.get(messageID);
+		if(obs != null) {
+			obs.onCancel();
+		}
 	}
 
 }
@@ -0,0 +1,295 @@
+package com.ibm.mqttv3.binding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of notifications a client sends to a server in one message.
+ *
+ * The payload is a SenML like JSON array with one record per notification,
+ * the base name of the first record carries the endpoint of the client and
+ * each record the message-id of the observe request it answers:
+ *
+ *   [{"bn":"10","n":"3303/0/5700","mid":8812,"vs":"21.5"},
+ *    {"n":"3303/0/5601","mid":8815,"vs":"18.0"}]
+ *
+ * The batch is published on the response topic of the server with "batch"
+ * in place of a message-id, a server not aware of batches ignores it.
+ */
+public class NotificationBatch {
+
+	/** Last topic level of a batch */
+	public static final String TOPIC_LEVEL = "batch";
+
+	/**
+	 * One notification of the batch
+	 */
+	public static final class Record {
+		private final String name;
+		private final long messageID;
+		private final byte[] value;
+
+		public Record(String name, long messageID, byte[] value) {
+			this.name = name;
+			this.messageID = messageID;
+			this.value = value;
+		}
+
+		/** the path of the observed node */
+		public String getName() {
+			return name;
+		}
+
+		/** the message-id of the observe request */
+		public long getMessageID() {
+			return messageID;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+	}
+
+	private final String endpointID;
+	private final List<Record> records;
+
+	public NotificationBatch(String endpointID) {
+		this(endpointID, new ArrayList<Record>());
+	}
+
+	private NotificationBatch(String endpointID, List<Record> records) {
+		this.endpointID = endpointID;
+		this.records = records;
+	}
+
+	public void add(Record record) {
+		records.add(record);
+	}
+
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Returns the endpoint of the client which sent the batch
+	 */
+	public String getEndpointID() {
+		return endpointID;
+	}
+
+	/**
+	 * Returns true if the topic is the one of a batch
+	 */
+	public static boolean isBatchTopic(String topic) {
+		return topic.endsWith("/" + TOPIC_LEVEL);
+	}
+
+	public byte[] encode() {
+		StringBuilder sb = new StringBuilder(32 + records.size() * 48);
+		sb.append('[');
+		for (int i = 0; i < records.size(); i++) {
+			Record record = records.get(i);
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('{');
+			if (i == 0 && endpointID != null) {
+				appendString(sb.append("\"bn\":"), endpointID).append(',');
+			}
+			if (record.name != null) {
+				appendString(sb.append("\"n\":"), record.name).append(',');
+			}
+			sb.append("\"mid\":").append(record.messageID).append(",\"vs\":");
+			appendString(sb, new String(record.value, StandardCharsets.UTF_8));
+			sb.append('}');
+		}
+		sb.append(']');
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static StringBuilder appendString(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"');
+	}
+
+	/**
+	 * Decodes the payload of a batch, records without a message-id are skipped
+	 *
+	 * @throws IllegalArgumentException if the payload is not a batch
+	 */
+	public static NotificationBatch decode(byte[] payload) {
+		return new Parser(new String(payload, StandardCharsets.UTF_8)).parse();
+	}
+
+	/*
+	 * Parses the records as written by encode(), unknown keys are skipped
+	 * as long as their value is a string or a number
+	 */
+	private static final class Parser {
+		private final String s;
+		private int pos;
+
+		private Parser(String s) {
+			this.s = s;
+		}
+
+		private NotificationBatch parse() {
+			String endpointID = null;
+			List<Record> records = new ArrayList<Record>();
+			expect('[');
+			if (peek() == ']') {
+				pos++;
+				return new NotificationBatch(null, records);
+			}
+			do {
+				expect('{');
+				String name = null;
+				long messageID = -1;
+				String value = null;
+				if (peek() != '}') {
+					do {
+						String key = readString();
+						expect(':');
+						if (peek() == '"') {
+							String text = readString();
+							if ("bn".equals(key)) {
+								endpointID = text;
+							} else if ("n".equals(key)) {
+								name = text;
+							} else if ("vs".equals(key)) {
+								value = text;
+							}
+						} else {
+							long number = readNumber();
+							if ("mid".equals(key)) {
+								messageID = number;
+							}
+						}
+					} while (accept(','));
+				}
+				expect('}');
+				if (messageID >= 0 && value != null) {
+					records.add(new Record(name, messageID, value.getBytes(StandardCharsets.UTF_8)));
+				}
+			} while (accept(','));
+			expect(']');
+			return new NotificationBatch(endpointID, records);
+		}
+
+		private char peek() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+			if (pos >= s.length()) {
+				throw new IllegalArgumentException("Unexpected end of batch");
+			}
+			return s.charAt(pos);
+		}
+
+		private boolean accept(char c) {
+			if (pos < s.length() && peek() == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) {
+			if (peek() != c) {
+				throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+			}
+			pos++;
+		}
+
+		private long readNumber() {
+			peek();
+			int start = pos;
+			while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) {
+				pos++;
+			}
+			String number = s.substring(start, pos);
+			try {
+				if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+					// a message-id may be beyond the precision of a double
+					return Long.parseLong(number);
+				}
+				return (long) Double.parseDouble(number);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number at " + start);
+			}
+		}
+
+		private String readString() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (pos >= s.length()) {
+					throw new IllegalArgumentException("Unterminated string");
+				}
+				char c = s.charAt(pos++);
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (pos >= s.length()) {
+					throw new IllegalArgumentException("Unterminated string");
+				}
+				c = s.charAt(pos++);
+				switch (c) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > s.length()) {
+						throw new IllegalArgumentException("Invalid escape at " + pos);
+					}
+					sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default:
+					sb.append(c);
+				}
+			}
+		}
+	}
+}
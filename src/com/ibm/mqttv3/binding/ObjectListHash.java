@@ -0,0 +1,35 @@
+package com.ibm.mqttv3.binding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * The hash of the object list a client registers, in the link format.
+ *
+ * A client sends the hash of its object list with the registration
+ * parameter oh= and may leave the list out of an update when the hash did
+ * not change since its last registration or update. The server compares
+ * the hash with the one it holds and only parses a list that changed, so a
+ * refresh of the lifetime costs neither the list nor its parsing.
+ */
+public final class ObjectListHash {
+
+	/** registration parameter carrying the hash of the object list */
+	public static final String QUERY_PARAM_OBJECTS_HASH = "oh=";
+
+	private ObjectListHash() {
+	}
+
+	/**
+	 * Returns the hash of the object list, as sent in the oh= parameter
+	 */
+	public static String of(byte[] objects) {
+		CRC32 crc = new CRC32();
+		crc.update(objects, 0, objects.length);
+		return Long.toHexString(crc.getValue());
+	}
+
+	public static String of(String objects) {
+		return of(objects.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,111 @@
+package com.ibm.mqttv3.binding;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Connects to a broker over TCP with the Paho client, keeping the state of
+ * the session in memory.
+ */
+public class PahoTransport implements MqttTransport {
+
+	private final String serverURI;
+	private final String clientID;
+
+	private volatile MqttAsyncClient mqttClient = null;
+	private volatile MqttCallback callback;
+
+	public PahoTransport(InetSocketAddress brokerAddress, String clientID) {
+		this.serverURI = "tcp://"+brokerAddress.getHostString()+":"+brokerAddress.getPort();
+		this.clientID = clientID;
+	}
+
+	/**
+	 * Returns a factory of the transports to the given broker
+	 */
+	public static MqttTransportFactory factory(final InetSocketAddress brokerAddress) {
+		return new MqttTransportFactory() {
+			@Override
+			public MqttTransport create(String clientID) {
+				return new PahoTransport(brokerAddress, clientID);
+			}
+		};
+	}
+
+	@Override
+	public void connect() throws MqttException {
+		if(mqttClient == null) {
+			mqttClient = new MqttAsyncClient(serverURI, clientID, new MemoryPersistence());
+			if(callback != null) {
+				mqttClient.setCallback(callback);
+			}
+		}
+		MqttConnectOptions connOpts = new MqttConnectOptions();
+		connOpts.setCleanSession(true);
+		mqttClient.connect(connOpts).waitForCompletion();
+	}
+
+	@Override
+	public void disconnect() throws MqttException {
+		client().disconnect().waitForCompletion();
+	}
+
+	@Override
+	public void close() throws MqttException {
+		client().close();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return mqttClient != null && mqttClient.isConnected();
+	}
+
+	@Override
+	public void setCallback(MqttCallback callback) {
+		this.callback = callback;
+		if(mqttClient != null) {
+			mqttClient.setCallback(callback);
+		}
+	}
+
+	@Override
+	public void subscribe(String[] topicFilters, int[] qos) throws MqttException {
+		client().subscribe(topicFilters, qos).waitForCompletion();
+	}
+
+	@Override
+	public void unsubscribe(String topicFilter) throws MqttException {
+		client().unsubscribe(topicFilter).waitForCompletion();
+	}
+
+	@Override
+	public void publish(String topic, MqttMessage message) throws MqttException {
+		client().publish(topic, message).waitForCompletion();
+	}
+
+	@Override
+	public void publish(String topic, MqttMessage message, Object userContext, 
+			IMqttActionListener listener) throws MqttException {
+		client().publish(topic, message, userContext, listener);
+	}
+
+	@Override
+	public String getServerURI() {
+		return serverURI;
+	}
+
+	private MqttAsyncClient client() throws MqttException {
+		MqttAsyncClient client = mqttClient;
+		if(client == null) {
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+		}
+		return client;
+	}
+}
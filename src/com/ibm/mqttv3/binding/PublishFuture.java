@@ -0,0 +1,108 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * The pending result of a publish, completed when the broker acknowledged
+ * the message according to its QoS, or when the publish failed.
+ *
+ * A publish can not be cancelled once it was handed over.
+ */
+public class PublishFuture implements Future<Void> {
+
+	private final String topic;
+	private final MqttMessage message;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+	private volatile Throwable failure;
+
+	PublishFuture(String topic, MqttMessage message) {
+		this.topic = topic;
+		this.message = message;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	MqttMessage getMessage() {
+		return message;
+	}
+
+	/*
+	 * Returns true if this call completed the future
+	 */
+	boolean succeed() {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		done.countDown();
+		return true;
+	}
+
+	boolean fail(Throwable cause) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		failure = cause;
+		done.countDown();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Returns true if the publish completed with an error
+	 */
+	public boolean isFailed() {
+		return isDone() && failure != null;
+	}
+
+	@Override
+	public Void get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("Publish to " + topic + " not completed");
+		}
+		return result();
+	}
+
+	private Void result() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "PublishFuture [topic=" + topic + ", done=" + isDone() + ", failure=" + failure + "]";
+	}
+}
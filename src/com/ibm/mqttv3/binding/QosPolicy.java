@@ -0,0 +1,179 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Chooses the MQTT QoS of a message by its kind.
+ *
+ * The defaults keep the registration interface at QoS 2, send requests
+ * and their responses at QoS 1 and notifications at QoS 0, a lost sample
+ * is superseded by the next one. Writes and executes which may arrive
+ * twice at QoS 1 are filtered by the receiver, see DuplicateFilter.
+ *
+ * The QoS of every kind can be set in mqtt.properties, e.g.
+ *   QOS_NOTIFICATION = 1
+ */
+public class QosPolicy {
+
+	/**
+	 * The kinds of messages a QoS is chosen for
+	 */
+	public enum MessageKind {
+		/** register, update and deregister requests and their responses */
+		REGISTRATION(2),
+		/** read, discover, observe and cancel observation requests */
+		READ(1),
+		/** write, write attributes, create and delete requests */
+		WRITE(1),
+		/** execute requests */
+		EXECUTE(1),
+		/** responses to any other request */
+		RESPONSE(1),
+		/** notifications of an observation */
+		NOTIFICATION(0);
+
+		private final int defaultQos;
+
+		private MessageKind(int defaultQos) {
+			this.defaultQos = defaultQos;
+		}
+	}
+
+	private static final String PROPERTY_PREFIX = "QOS_";
+	private static final String PROPERTY_SUBSCRIBE = "QOS_SUBSCRIBE";
+
+	/* resource of the registration interface */
+	private static final String RD_RESOURCE = "rd";
+
+	private final int[] qos = new int[MessageKind.values().length];
+	private int subscribeQos = 2;
+
+	/**
+	 * Creates a policy with the default QoS of every kind
+	 */
+	public QosPolicy() {
+		for (MessageKind kind : MessageKind.values()) {
+			qos[kind.ordinal()] = kind.defaultQos;
+		}
+	}
+
+	/**
+	 * Creates a policy from the QOS_&lt;KIND&gt; and QOS_SUBSCRIBE properties,
+	 * absent properties keep their default.
+	 */
+	public static QosPolicy fromProperties(Properties properties) {
+		QosPolicy policy = new QosPolicy();
+		for (MessageKind kind : MessageKind.values()) {
+			String value = properties.getProperty(PROPERTY_PREFIX + kind.name());
+			if (value != null) {
+				policy.setQos(kind, Integer.parseInt(value.trim()));
+			}
+		}
+		String value = properties.getProperty(PROPERTY_SUBSCRIBE);
+		if (value != null) {
+			policy.setSubscribeQos(Integer.parseInt(value.trim()));
+		}
+		return policy;
+	}
+
+	public void setQos(MessageKind kind, int qos) {
+		this.qos[kind.ordinal()] = validate(qos);
+	}
+
+	public int getQos(MessageKind kind) {
+		return qos[kind.ordinal()];
+	}
+
+	/**
+	 * Sets the max QoS of the subscriptions, the broker delivers no
+	 * message at a higher QoS than this
+	 */
+	public void setSubscribeQos(int qos) {
+		this.subscribeQos = validate(qos);
+	}
+
+	public int getSubscribeQos() {
+		return subscribeQos;
+	}
+
+	private static int validate(int qos) {
+		if (qos < 0 || qos > 2) {
+			throw new IllegalArgumentException("Invalid QoS " + qos);
+		}
+		return qos;
+	}
+
+	/**
+	 * Returns the QoS to send the given request with
+	 */
+	public int getQos(Request request) {
+		return getQos(kindOf(request));
+	}
+
+	/**
+	 * Returns the QoS to send the response to the given request with
+	 */
+	public int getQos(Request request, Response response) {
+		return getQos(kindOf(request, response));
+	}
+
+	public static MessageKind kindOf(Request request) {
+		if (isRegistration(request)) {
+			return MessageKind.REGISTRATION;
+		}
+		switch (request.getOperation()) {
+		case GET:
+		case RESET:
+			return MessageKind.READ;
+		case POST:
+			// a POST on a resource executes it, on an object it creates an instance
+			return levels(request) == 3 ? MessageKind.EXECUTE : MessageKind.WRITE;
+		default:
+			return MessageKind.WRITE;
+		}
+	}
+
+	public static MessageKind kindOf(Request request, Response response) {
+		if (isRegistration(request)) {
+			return MessageKind.REGISTRATION;
+		}
+		// the first response to an observe carries the content, the following ones notify changes
+		if (request.isObserve() && response.getCodeAsInt() == ResponseCode.CHANGED.code) {
+			return MessageKind.NOTIFICATION;
+		}
+		return MessageKind.RESPONSE;
+	}
+
+	/*
+	 * Works on the resource path, which received and built requests both have
+	 */
+	private static boolean isRegistration(Request request) {
+		String path = path(request);
+		return path.equals(RD_RESOURCE) || path.startsWith(RD_RESOURCE + "/");
+	}
+
+	private static int levels(Request request) {
+		String path = path(request);
+		if (path.isEmpty()) {
+			return 0;
+		}
+		int levels = 1;
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) == '/') {
+				levels++;
+			}
+		}
+		return levels;
+	}
+
+	private static String path(Request request) {
+		String path = request.getResourcePath();
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	@Override
+	public String toString() {
+		return "QosPolicy [qos=" + Arrays.toString(qos) + ", subscribeQos=" + subscribeQos + "]";
+	}
+}
@@ -1,7 +1,9 @@
 package com.ibm.mqttv3.binding;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -24,6 +26,9 @@ public class Request {
 	private Operation operation;
 	private String resource = "";
 	private MqttPayload payload;
+	private Framing framing = Framing.TEXT;
+	/* the QoS a received request was delivered with, -1 for a request to send */
+	private int qos = -1;
 	
 	private LwM2MNode node;
 
@@ -33,6 +38,11 @@ public class Request {
 		private String objectId;
 		private String objectIdInstance;
 		private String resourceId;
+		
+		/* numeric form of the ids, -1 when absent or not a number */
+		private int objectIdValue = -1;
+		private int objectIdInstanceValue = -1;
+		private int resourceIdValue = -1;
 	}
 	
 	private class MqttPayload {
@@ -41,13 +51,31 @@ public class Request {
 		private String requestorAppID;
 		private int option;
 		
-		private StringBuilder content = new StringBuilder();
+		private StringBuilder content;
+		
+		/*
+		 * Received requests keep the raw payload and the offset of the
+		 * content in it, the content is decoded only when asked for
+		 */
+		private byte[] raw;
+		private int contentOffset;
+		private String text;
+		
+		private MqttPayload() {
+			content = new StringBuilder();
+		}
+		
+		private MqttPayload(byte[] raw) {
+			this.raw = raw;
+		}
 	}
 	
+	private static final Operation[] OPERATIONS = Operation.values();
 	
 	public Request(String topic, MqttMessage message) {
 		parseTopic(topic);
 		parseContent(message);
+		this.qos = message.getQos();
 	}
 	
 	public Request(Operation operation) {
@@ -59,64 +87,162 @@ public class Request {
 		return resource;
 	}
 	
+	/*
+	 * Parses "messageID requestorEndpointID requestorAppID content" in a 
+	 * single pass over the payload bytes, the content is left in place
+	 */
 	private void parseContent(MqttMessage message) {
-		try {
-			String content = new String(message.getPayload(), "UTF-8");
-			String[] parms = content.split(" ", 4);
-			
-			this.payload = new MqttPayload(); 
-			payload.messageID = Long.parseLong(parms[0]);
-			payload.requestorEndpointID = parms[1];
-			payload.requestorAppID = parms[2];
-			if(parms.length >=4)
-				payload.content = payload.content.append(parms[3]);
-			
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		byte[] raw = message.getPayload();
+		int length = raw.length;
+		
+		this.payload = new MqttPayload(raw);
+		this.framing = Framing.of(raw);
+		if(framing == Framing.BINARY) {
+			parseBinaryContent(raw);
+			return;
 		}
 		
+		int end = indexOf(raw, 0, (byte) ' ');
+		payload.messageID = parseLong(raw, 0, end);
+		
+		int start = end + 1;
+		end = indexOf(raw, start, (byte) ' ');
+		payload.requestorEndpointID = new String(raw, start, end - start, StandardCharsets.UTF_8);
 		
+		start = end + 1;
+		end = indexOf(raw, start, (byte) ' ');
+		payload.requestorAppID = new String(raw, start, end - start, StandardCharsets.UTF_8);
+		
+		payload.contentOffset = Math.min(end + 1, length);
+	}
+	
+	/*
+	 * Parses the binary frame, see Framing
+	 */
+	private void parseBinaryContent(byte[] raw) {
+		Framing.Reader reader = new Framing.Reader(raw, 1);
+		int operation = reader.readByte();
+		if(operation != this.operation.ordinal()) {
+			throw new IllegalArgumentException("Operation "+operation+
+					" of binary frame does not match the topic "+this.operation);
+		}
+		payload.messageID = reader.readVarint();
+		payload.requestorEndpointID = reader.readString();
+		payload.requestorAppID = reader.readString();
+		payload.contentOffset = reader.position();
+	}
+	
+	private static int indexOf(byte[] raw, int from, byte b) {
+		if(from > raw.length) {
+			throw new IllegalArgumentException("Incomplete request payload");
+		}
+		for(int i = from; i < raw.length; i++) {
+			if(raw[i] == b) {
+				return i;
+			}
+		}
+		return raw.length;
 	}
 	
+	private static long parseLong(byte[] raw, int start, int end) {
+		if(start >= end) {
+			throw new NumberFormatException("Missing message-id");
+		}
+		long value = 0;
+		for(int i = start; i < end; i++) {
+			int digit = raw[i] - '0';
+			if(digit < 0 || digit > 9) {
+				throw new NumberFormatException("Invalid message-id");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	/*
+	 * Parses the topic in a single pass, without splitting it
+	 */
 	private void parseTopic(String topic) {
 		
 		// LWM/S/ORG_ID/Device_ID/App_ID/MethodName/PATH?queryString
 		
-		String[] levels = topic.split("/");
+		// skip LWM/S
+		int start = topic.indexOf('/', topic.indexOf('/') + 1) + 1;
 		
 		// get org id now
+		int end = nextLevel(topic, start);
+		this.organizationID = topic.substring(start, end);
 		
-		this.organizationID = levels[2];
-		this.endpointID = levels[3];
-		this.applicationID = levels[4];
-		this.operation = Operation.valueOf(levels[5]);
+		start = end + 1;
+		end = nextLevel(topic, start);
+		this.endpointID = topic.substring(start, end);
 		
-		int length = levels[0].length() + levels[1].length() +
-					 levels[2].length() + levels[3].length() +
-					 levels[4].length() + levels[5].length() + 6;
+		start = end + 1;
+		end = nextLevel(topic, start);
+		this.applicationID = topic.substring(start, end);
 		
+		start = end + 1;
+		end = nextLevel(topic, start);
+		this.operation = parseOperation(topic, start, end);
 		
-		resource = topic.substring(length);
+		start = end + 1;
+		resource = start < topic.length() ? topic.substring(start) : "";
 
 		// extract the objectid, object-instanceid and resource-id
-        String[] resources = resource.split("/");
-        
-        if(resources == null || resources.length == 0) {
-        	return;
-        }
+		node = new LwM2MNode();
+		start = 0;
+		end = nextLevel(resource, start);
+		node.objectId = resource.substring(start, end);
+		node.objectIdValue = parseId(resource, start, end);
         
-        node = new LwM2MNode();
-        node.objectId = resources[0];
-        
-        // extract the objectid instance
-        if(resources.length > 1) {
-        	node.objectIdInstance = resources[1];
-        }
-        
-        if(resources.length > 2) {
-           node.resourceId = resources[2];
-        }
+		// extract the objectid instance
+		start = end + 1;
+		if(start < resource.length()) {
+			end = nextLevel(resource, start);
+			node.objectIdInstance = resource.substring(start, end);
+			node.objectIdInstanceValue = parseId(resource, start, end);
+		}
+		
+		start = end + 1;
+		if(node.objectIdInstance != null && start < resource.length()) {
+			end = nextLevel(resource, start);
+			node.resourceId = resource.substring(start, end);
+			node.resourceIdValue = parseId(resource, start, end);
+		}
+	}
+	
+	private static int nextLevel(String topic, int from) {
+		int end = topic.indexOf('/', from);
+		return end < 0 ? topic.length() : end;
+	}
+	
+	private static Operation parseOperation(String topic, int start, int end) {
+		int length = end - start;
+		for(Operation operation : OPERATIONS) {
+			String name = operation.name();
+			if(name.length() == length && topic.regionMatches(start, name, 0, length)) {
+				return operation;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation " + topic.substring(start, end));
+	}
+	
+	/*
+	 * LwM2M ids are 16 bit unsigned integers
+	 */
+	private static int parseId(String path, int start, int end) {
+		if(start >= end || end - start > 5) {
+			return -1;
+		}
+		int value = 0;
+		for(int i = start; i < end; i++) {
+			int digit = path.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value <= 0xFFFF ? value : -1;
 	}
 
 	public List<String> getURIPaths() {
@@ -165,10 +291,25 @@ public class Request {
 		}
 		return null;
 	}
+	
+	/*
+	 * Numeric ids of the target node, -1 when absent or not a number
+	 */
+	public int getObjectIdAsInt() {
+		return null != node ? node.objectIdValue : -1;
+	}
+	
+	public int getObjectInstanceIdAsInt() {
+		return null != node ? node.objectIdInstanceValue : -1;
+	}
+	
+	public int getResourceIdAsInt() {
+		return null != node ? node.resourceIdValue : -1;
+	}
 
 	public boolean isObserve() {
 		if(( getOperation() == Operation.GET) &&
-				GET.value(getPayloadText()) == GET.OBSERVE) {
+				getGetOption() == GET.OBSERVE) {
 			return true;
 		}
 		return false;
@@ -176,7 +317,7 @@ public class Request {
 	
 	public boolean isRead() {
 		if(( getOperation() == Operation.GET) &&
-				GET.value(getPayloadText()) == GET.READ) {
+				getGetOption() == GET.READ) {
 			return true;
 		}
 		return false;
@@ -184,21 +325,58 @@ public class Request {
 	
 	public boolean isDiscover() {
 		if(( getOperation() == Operation.GET) &&
-				GET.value(getPayloadText()) == GET.DISCOVER) {
+				getGetOption() == GET.DISCOVER) {
 			return true;
 		}
 		return false;
 	}
 	
+	/*
+	 * Reads the GET option straight from the raw payload if possible
+	 */
+	private GET getGetOption() {
+		byte[] raw = this.payload.raw;
+		if(raw != null) {
+			int start = this.payload.contentOffset;
+			if(raw.length - start == 1) {
+				return GET.valueOf(raw[start] - '0');
+			}
+		}
+		return GET.value(getPayloadText());
+	}
+	
 	public String getPayloadText() {
-		return this.payload.content.toString();
+		MqttPayload payload = this.payload;
+		if(payload.raw != null) {
+			if(payload.text == null) {
+				payload.text = new String(payload.raw, payload.contentOffset, 
+						payload.raw.length - payload.contentOffset, StandardCharsets.UTF_8);
+			}
+			return payload.text;
+		}
+		return payload.content.toString();
 	}
 	
 	public byte[] getPayloadContent() {
-		if(this.payload.content == null) {
-			return null;
+		MqttPayload payload = this.payload;
+		if(payload.raw != null) {
+			return Arrays.copyOfRange(payload.raw, payload.contentOffset, payload.raw.length);
+		}
+		return payload.content.toString().getBytes(); 
+	}
+	
+	/*
+	 * Returns the builder of the content, a received content is 
+	 * decoded first so that it can be modified
+	 */
+	private StringBuilder content() {
+		MqttPayload payload = this.payload;
+		if(payload.content == null) {
+			payload.content = new StringBuilder(getPayloadText());
+			payload.raw = null;
+			payload.text = null;
 		}
-		return this.payload.content.toString().getBytes(); 
+		return payload.content;
 	}
 
 	public static Request newPost() {
@@ -234,7 +412,7 @@ public class Request {
 	}
 
 	public void setPayloadContent(String content) {
-		this.payload.content.append(content);
+		content().append(content);
 	}
 	
 	public long getMessageID() {
@@ -245,7 +423,64 @@ public class Request {
 		return this.payload.messageID +" "+
 				this.payload.requestorEndpointID +" "+
 				this.payload.requestorAppID +" "+
-				this.payload.content;
+				getPayloadText();
+	}
+	
+	/**
+	 * Returns the payload of this request in its framing
+	 */
+	public byte[] getMessageAsBytes() {
+		if(framing == Framing.TEXT) {
+			return getMessageAsString().getBytes(StandardCharsets.UTF_8);
+		}
+		
+		byte[] endpoint = payload.requestorEndpointID.getBytes(StandardCharsets.UTF_8);
+		byte[] app = payload.requestorAppID.getBytes(StandardCharsets.UTF_8);
+		
+		byte[] content;
+		int contentOffset;
+		int contentLength;
+		if(payload.raw != null) {
+			content = payload.raw;
+			contentOffset = payload.contentOffset;
+			contentLength = content.length - contentOffset;
+		} else {
+			content = payload.content.toString().getBytes(StandardCharsets.UTF_8);
+			contentOffset = 0;
+			contentLength = content.length;
+		}
+		
+		byte[] frame = new byte[2 + Framing.varintSize(payload.messageID) + 
+		                        Framing.varintSize(endpoint.length) + endpoint.length +
+		                        Framing.varintSize(app.length) + app.length + contentLength];
+		frame[0] = Framing.MAGIC;
+		frame[1] = (byte) operation.ordinal();
+		int pos = Framing.writeVarint(frame, 2, payload.messageID);
+		pos = Framing.writeString(frame, pos, endpoint);
+		pos = Framing.writeString(frame, pos, app);
+		System.arraycopy(content, contentOffset, frame, pos, contentLength);
+		return frame;
+	}
+	
+	public Framing getFraming() {
+		return framing;
+	}
+	
+	/**
+	 * Returns the QoS the request was delivered with, the lower of the
+	 * QoS it was published with and of the subscription, -1 if it was
+	 * not received
+	 */
+	public int getQos() {
+		return qos;
+	}
+	
+	/**
+	 * Sets the framing used to send this request, the response
+	 * is sent back in the same framing
+	 */
+	public void setFraming(Framing framing) {
+		this.framing = framing;
 	}
 	
 	public String getTopic() {
@@ -299,7 +534,7 @@ public class Request {
 	public void setPayloadContent(byte[] content) {
 		try {
 			if(content != null  && content.length > 0)
-				this.payload.content.append(new String(content, "UTF-8"));
+				content().append(new String(content, "UTF-8"));
 		} catch (UnsupportedEncodingException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -310,8 +545,8 @@ public class Request {
 	public void addPayloadContent(byte[] content) {
 		try {
 			if(content != null  && content.length > 0) {
-				this.payload.content.append(" ");
-				this.payload.content.append(new String(content, "UTF-8"));
+				content().append(" ");
+				content().append(new String(content, "UTF-8"));
 			}
 		} catch (UnsupportedEncodingException e) {
 			// TODO Auto-generated catch block
@@ -324,7 +559,7 @@ public class Request {
 	 */
 	public void cancel() {
 		this.operation = Operation.RESET;
-		mqttClient.publish(this.getTopic(), this.getMessageAsString());
+		mqttClient.publish(this);
 		((MqttV3MessageReceiver)mqttClient.getMqttCallback()).cancel(this.getMessageID());
 	}
 
@@ -0,0 +1,253 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Flat index of the resource tree, resolving an objectId/instanceId/resourceId
+ * path in one probe instead of a getChild() walk per level.
+ *
+ * The path is packed into a single long, 21 bits per level holding the id + 1
+ * so that an absent level is 0, and stored in an open addressing table with
+ * linear probing. Only the first three levels of resources with numeric names
+ * are indexed, e.g. the rd resource of the server is not.
+ *
+ * The index is maintained by {@link MQTTResource} when children are added or
+ * removed below the root. Lookups do not lock, updates are serialized and a
+ * resized table is published only once it is complete.
+ */
+public class ResourceIndex {
+
+	/** Key of a path which can not be indexed */
+	public static final long NO_KEY = -1L;
+
+	/** Highest id a level may have */
+	public static final int MAX_ID = (1 << 21) - 2;
+
+	private static final int BITS = 21;
+
+	/* slot states of the key array, NO_KEY is never a valid key */
+	private static final long FREE = 0L;
+	private static final long REMOVED = NO_KEY;
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private volatile Table table;
+	private int size;
+	private int removed;
+
+	public ResourceIndex() {
+		this.table = new Table(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Packs the path into a key, an id of -1 marks an absent level.
+	 *
+	 * @return the key or NO_KEY if an id is out of range or a level is
+	 *         present below an absent one
+	 */
+	public static long key(int objectId, int instanceId, int resourceId) {
+		if (objectId < 0 || objectId > MAX_ID || instanceId > MAX_ID || resourceId > MAX_ID
+				|| (instanceId < 0 && resourceId >= 0)) {
+			return NO_KEY;
+		}
+		long key = (long) (objectId + 1) << (2 * BITS);
+		if (instanceId >= 0) {
+			key |= (long) (instanceId + 1) << BITS;
+		}
+		if (resourceId >= 0) {
+			key |= resourceId + 1;
+		}
+		return key;
+	}
+
+	/**
+	 * Packs a path of the form "3303/0/5700", with or without a leading "/"
+	 *
+	 * @return the key or NO_KEY if the path is not numeric or deeper than 3 levels
+	 */
+	public static long key(String path) {
+		int[] ids = { -1, -1, -1 };
+		int level = 0;
+		int start = path.length() > 0 && path.charAt(0) == '/' ? 1 : 0;
+		int value = -1;
+		for (int i = start; i <= path.length(); i++) {
+			char c = i < path.length() ? path.charAt(i) : '/';
+			if (c == '/') {
+				if (value < 0 || level == 3) {
+					return NO_KEY;
+				}
+				ids[level++] = value;
+				value = -1;
+			} else if (c >= '0' && c <= '9') {
+				value = value < 0 ? c - '0' : value * 10 + (c - '0');
+				if (value > MAX_ID) {
+					return NO_KEY;
+				}
+			} else {
+				return NO_KEY;
+			}
+		}
+		return key(ids[0], ids[1], ids[2]);
+	}
+
+	/**
+	 * Returns the id a resource name stands for, or -1 if it is not numeric
+	 */
+	static int idOf(String name) {
+		if (name == null || name.isEmpty() || name.length() > 7) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value > MAX_ID ? -1 : value;
+	}
+
+	/**
+	 * Returns the resource of the given path, -1 marking an absent level
+	 */
+	public Resource get(int objectId, int instanceId, int resourceId) {
+		return get(key(objectId, instanceId, resourceId));
+	}
+
+	/**
+	 * Returns the resource stored under the given key, or null
+	 */
+	public Resource get(long key) {
+		if (key == NO_KEY || key == FREE) {
+			return null;
+		}
+		retry: for (;;) {
+			Table t = table;
+			int mask = t.keys.length() - 1;
+			for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+				long k = t.keys.get(i);
+				if (k == key) {
+					// the value is written before the key, null only while removed
+					Resource resource = t.values.get(i);
+					if (t.keys.get(i) != key) {
+						// removed and reused for another key in the meantime
+						continue retry;
+					}
+					return resource;
+				}
+				if (k == FREE) {
+					return null;
+				}
+			}
+		}
+	}
+
+	public synchronized void put(long key, Resource resource) {
+		if (key == NO_KEY || key == FREE) {
+			return;
+		}
+		if ((size + removed + 1) * 4 > table.keys.length() * 3) {
+			rehash();
+		}
+		Table t = table;
+		int mask = t.keys.length() - 1;
+		int reuse = -1;
+		int i = hash(key) & mask;
+		for (; ; i = (i + 1) & mask) {
+			long k = t.keys.get(i);
+			if (k == key) {
+				t.values.set(i, resource);
+				return;
+			}
+			if (k == FREE) {
+				break;
+			}
+			if (k == REMOVED && reuse < 0) {
+				reuse = i;
+			}
+		}
+		if (reuse >= 0) {
+			i = reuse;
+			removed--;
+		}
+		t.values.set(i, resource);
+		t.keys.set(i, key);
+		size++;
+	}
+
+	/**
+	 * Removes the key if it maps to the given resource
+	 */
+	public synchronized boolean remove(long key, Resource resource) {
+		if (key == NO_KEY || key == FREE) {
+			return false;
+		}
+		Table t = table;
+		int mask = t.keys.length() - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			long k = t.keys.get(i);
+			if (k == key) {
+				if (t.values.get(i) != resource) {
+					return false;
+				}
+				t.values.set(i, null);
+				t.keys.set(i, REMOVED);
+				size--;
+				removed++;
+				return true;
+			}
+			if (k == FREE) {
+				return false;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Copies the live entries into a new table, doubled if more than half
+	 * of the slots are in use, and publishes it
+	 */
+	private void rehash() {
+		Table old = table;
+		int capacity = old.keys.length();
+		if ((size + 1) * 2 > capacity) {
+			capacity <<= 1;
+		}
+		Table t = new Table(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.keys.length(); j++) {
+			long k = old.keys.get(j);
+			if (k == FREE || k == REMOVED) {
+				continue;
+			}
+			int i = hash(k) & mask;
+			while (t.keys.get(i) != FREE) {
+				i = (i + 1) & mask;
+			}
+			t.values.set(i, old.values.get(j));
+			t.keys.set(i, k);
+		}
+		removed = 0;
+		table = t;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static final class Table {
+		private final AtomicLongArray keys;
+		private final AtomicReferenceArray<Resource> values;
+
+		private Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicReferenceArray<Resource>(capacity);
+		}
+	}
+}
@@ -1,58 +1,217 @@
 package com.ibm.mqttv3.binding;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 public class Response {
 
-	private float responseCode;
+	/* payload of a SERVICE_UNAVAILABLE response, followed by the seconds to wait */
+	public static final String RETRY_AFTER = "retry-after=";
+
+	/* response code as class * 100 + detail, i.e 2.05 is 205 */
+	private int code;
+	
+	/* 
+	 * The payload of a received response stays in the message bytes
+	 * and is decoded only when it is asked for as text
+	 */
+	private byte[] raw;
+	private int offset;
+	private int length;
 	private String payload = "";
 	
 	public Response(ResponseCode responseCode) {
-		this.responseCode = responseCode.value;
+		this.code = responseCode.code;
 	}
 
+	/**
+	 * Creates a SERVICE_UNAVAILABLE response which tells the requestor
+	 * to retry after the given number of seconds
+	 */
+	public static Response serviceUnavailable(int retryAfterSeconds) {
+		Response response = new Response(ResponseCode.SERVICE_UNAVAILABLE);
+		response.setPayload(RETRY_AFTER + retryAfterSeconds);
+		return response;
+	}
+	
 	public Response(MqttMessage message) {
-		String msg = null;
-		try {
-			msg = new String(message.getPayload(), "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		byte[] data = message.getPayload();
+		if(Framing.of(data) == Framing.BINARY) {
+			parseBinary(data);
+			return;
 		}
-		String[] data = msg.split(" ", 2);
-		this.payload = data[1];
-		this.responseCode = Float.valueOf(data[0]);
+		int i = 0;
+		int codeClass = 0;
+		int detail = 0;
+		int detailDigits = 0;
+		
+		// <class>[.<detail>] <payload>
+		while(i < data.length && data[i] != ' ' && data[i] != '.') {
+			codeClass = codeClass * 10 + digit(data[i++]);
+		}
+		if(i < data.length && data[i] == '.') {
+			i++;
+			while(i < data.length && data[i] != ' ') {
+				detail = detail * 10 + digit(data[i++]);
+				detailDigits++;
+			}
+		}
+		if(detailDigits == 1) {
+			// the float form drops the trailing zero, 2.1 is 2.10
+			detail *= 10;
+		} else if(detailDigits > 2) {
+			throw new NumberFormatException("Invalid response code in "+message);
+		}
+		this.code = codeClass * 100 + detail;
+		
+		this.raw = data;
+		this.offset = Math.min(i + 1, data.length);
+		this.length = data.length - offset;
+		this.payload = null;
+	}
+	
+	/*
+	 * magic, code (class << 5 | detail), raw payload
+	 */
+	private void parseBinary(byte[] data) {
+		if(data.length < 2) {
+			throw new IllegalArgumentException("Truncated binary frame");
+		}
+		int codeByte = data[1] & 0xFF;
+		this.code = (codeByte >>> 5) * 100 + (codeByte & 0x1F);
+		this.raw = data;
+		this.offset = 2;
+		this.length = data.length - 2;
+		this.payload = null;
+	}
+	
+	private static int digit(byte b) {
+		if(b < '0' || b > '9') {
+			throw new NumberFormatException("Invalid response code character '"+(char) b+"'");
+		}
+		return b - '0';
+	}
+	
+	/**
+	 * Returns the message-id carried in the last level of the given
+	 * response topic, or -1 if the last level is not a message-id.
+	 */
+	public static long parseMessageID(String topic) {
+		int end = topic.length();
+		if(end == 0) {
+			return -1;
+		}
+		long id = 0;
+		long multiplier = 1;
+		int i = end - 1;
+		for(; i >= 0 && topic.charAt(i) != '/'; i--) {
+			char c = topic.charAt(i);
+			if(c < '0' || c > '9' || end - i > 19) {
+				return -1;
+			}
+			id += (c - '0') * multiplier;
+			multiplier *= 10;
+		}
+		// beyond Long.MAX_VALUE the sum wraps to a negative value
+		return (i == end - 1 || id < 0) ? -1 : id;
 	}
 
 	public void setPayload(String payload) {
 		this.payload = payload;
+		this.raw = null;
 	}
 
 	public void setPayload(byte[] payload) {
-		try {
-			this.payload = new String(payload, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
+		this.raw = payload;
+		this.offset = 0;
+		this.length = payload.length;
+		this.payload = null;
 	}
 	
 	public String getMessage() {
-		return responseCode + " " + payload;
+		return getCode() + " " + getPayloadText();
+	}
+
+	/**
+	 * Returns the payload of this response in the given framing
+	 */
+	public byte[] getMessageAsBytes(Framing framing) {
+		if(framing == Framing.TEXT) {
+			return getMessage().getBytes(StandardCharsets.UTF_8);
+		}
+		
+		byte[] content;
+		int contentOffset = 0;
+		int contentLength;
+		if(raw != null) {
+			content = raw;
+			contentOffset = offset;
+			contentLength = length;
+		} else {
+			content = payload.getBytes(StandardCharsets.UTF_8);
+			contentLength = content.length;
+		}
+		byte[] frame = new byte[2 + contentLength];
+		frame[0] = Framing.MAGIC;
+		frame[1] = (byte) ((code / 100) << 5 | (code % 100));
+		System.arraycopy(content, contentOffset, frame, 2, contentLength);
+		return frame;
 	}
 
 	public float getCode() {
-		return responseCode;
+		return code / 100f;
+	}
+	
+	/**
+	 * Returns the response code as class * 100 + detail, i.e 205 for 2.05
+	 */
+	public int getCodeAsInt() {
+		return code;
 	}
 	
 	public byte[] getPayload() {
-		return this.payload.getBytes();
+		if(raw != null) {
+			return Arrays.copyOfRange(raw, offset, offset + length);
+		}
+		return this.payload.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns a read-only view of the payload bytes without copying them
+	 */
+	public ByteBuffer getPayloadBuffer() {
+		if(raw != null) {
+			return ByteBuffer.wrap(raw, offset, length).slice().asReadOnlyBuffer();
+		}
+		return ByteBuffer.wrap(this.payload.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns the seconds to wait before retrying, as told by a 
+	 * SERVICE_UNAVAILABLE response, or -1 if there is no hint
+	 */
+	public int getRetryAfter() {
+		if(code != ResponseCode.SERVICE_UNAVAILABLE.code) {
+			return -1;
+		}
+		String text = getPayloadText();
+		if(!text.startsWith(RETRY_AFTER)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(text.substring(RETRY_AFTER.length()).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
 	}
 	
 	public String getPayloadText() {
+		if(this.payload == null) {
+			this.payload = new String(raw, offset, length, StandardCharsets.UTF_8);
+		}
 		return this.payload;
 	}
 
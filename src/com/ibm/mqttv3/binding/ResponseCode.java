@@ -21,10 +21,15 @@ public enum ResponseCode {
     /** The End-point Client Name results in a duplicate entry on the LWM2M Server */
     CONFLICT(4.09f),
     /** Resource not found */
-    NOT_FOUND(4.04f); 
+    NOT_FOUND(4.04f),
+    /** The server is overloaded, the request may be retried later */
+    SERVICE_UNAVAILABLE(5.03f); 
     
 	/** The code value. */
 	public final float value;
+	
+	/** The code value as class * 100 + detail, i.e 205 for 2.05 */
+	public final int code;
 			
 	/**
 	 * Instantiates a new response code with the specified float value.
@@ -33,6 +38,7 @@ public enum ResponseCode {
 	 */
 	private ResponseCode(float value) {
 		this.value = value;
+		this.code = Math.round(value * 100);
 	}
 		
 	/**
@@ -59,16 +65,49 @@ public enum ResponseCode {
 			return NOT_FOUND;
 		} else if (value ==4.05f) { 
 			return METHOD_NOT_ALLOWED;
+		} else if (value ==5.03f) { 
+			return SERVICE_UNAVAILABLE;
 		}
 			
 		throw new IllegalArgumentException("Unknown LwM2M response code "+value);
 	}
+	
+	/**
+	 * Converts the specified integer value (class * 100 + detail) to a response code.
+	 *
+	 * @param code the value
+	 * @return the response code
+	 * @throws IllegalArgumentException if the value is not recognized
+	 */
+	public static ResponseCode valueOf(int code) {
+		switch(code) {
+			case 201: return CREATED;
+			case 202: return DELETED;
+			case 204: return CHANGED;
+			case 205: return CONTENT;
+			case 400: return BAD_REQUEST;
+			case 401: return UNAUTHORIZED;
+			case 404: return NOT_FOUND;
+			case 405: return METHOD_NOT_ALLOWED;
+			case 409: return CONFLICT;
+			case 503: return SERVICE_UNAVAILABLE;
+		}
+			
+		throw new IllegalArgumentException("Unknown LwM2M response code "+code);
+	}
 			
 			
 	public static boolean isSuccess(ResponseCode code) {
 		return CREATED.value <= code.value && code.value <= CONTENT.value;
 	}
 		
+	/*
+	 * Same as isSuccess(ResponseCode) for the integer form of the code
+	 */
+	public static boolean isSuccess(int code) {
+		return CREATED.code <= code && code <= CONTENT.code;
+	}
+	
 	public static boolean isClientError(ResponseCode code) {
 		return BAD_REQUEST.value <= code.value && code.value <= METHOD_NOT_ALLOWED.value;
 	}
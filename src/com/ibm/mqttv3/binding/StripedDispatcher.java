@@ -0,0 +1,444 @@
+package com.ibm.mqttv3.binding;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches tasks to a fixed set of lanes, each one a queue drained by
+ * a single thread.
+ *
+ * The lane is chosen by hashing a key, the endpoint ID of the device the
+ * message belongs to, so all the messages of a device are processed one
+ * after the other in arrival order while different devices are spread
+ * over the lanes. A busy device only delays the devices sharing its lane.
+ *
+ * Since a lane processes one message at a time, a task must not block
+ * waiting for another message of the same lane, e.g. a synchronous
+ * request to the same device.
+ *
+ * The lanes are bounded. Tasks of a higher priority are taken first. HIGH
+ * tasks are admitted into a full lane, up to a bound of their own, the
+ * capacity once more, beyond it they are dropped whatever the policy. For
+ * the others the overload policy decides what happens when their lane is
+ * full.
+ *
+ * Waiting for room in a lane only works if the tasks of the lane can
+ * complete meanwhile. A task which publishes synchronously at QoS 1 or 2
+ * waits for the acknowledgement, which Paho hands over on its callback
+ * thread. So the callback thread must never wait for a lane, it
+ * dispatches with mayWait false unless its connection publishes
+ * asynchronously, and then BLOCK rejects like REJECT.
+ */
+public class StripedDispatcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StripedDispatcher.class);
+
+	public static final int DEFAULT_LANE_CAPACITY = 10000;
+
+	/**
+	 * Priority of a task, the lanes take the tasks of higher priority first
+	 */
+	public enum Priority {
+		/** responses, deregistrations and rejections, only dropped beyond the
+		 *  bound of the HIGH tasks of the lane */
+		HIGH,
+		/** requests like registrations */
+		NORMAL,
+		/** notifications, a newer one supersedes the older ones */
+		LOW
+	}
+
+	/**
+	 * What happens to a NORMAL or LOW task when its lane is full
+	 */
+	public enum OverloadPolicy {
+		/** the dispatching thread waits until the lane has room, if it may wait */
+		BLOCK,
+		/** the oldest LOW task of the lane is dropped to make room, if there is none
+		 *  a LOW task is dropped and a NORMAL task waits if it may, or is rejected */
+		DROP_OLDEST,
+		/** LOW tasks are dropped and NORMAL tasks are rejected */
+		REJECT
+	}
+
+	private final Lane[] lanes;
+	private volatile boolean running = true;
+	
+	private volatile int capacity = DEFAULT_LANE_CAPACITY;
+	private volatile OverloadPolicy policy = OverloadPolicy.REJECT;
+	
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong overflowCount = new AtomicLong();
+
+	/**
+	 * Creates the dispatcher and starts one thread per lane.
+	 *
+	 * @param name prefix of the lane thread names
+	 * @param laneCount the number of lanes
+	 */
+	public StripedDispatcher(String name, int laneCount) {
+		if (laneCount <= 0) {
+			throw new IllegalArgumentException("laneCount must be greater than 0: " + laneCount);
+		}
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(name + "-" + i);
+		}
+	}
+
+	/**
+	 * Queues the task on the lane of the given key with NORMAL priority
+	 *
+	 * @return false if the task was dropped or rejected by the overload policy
+	 */
+	public boolean dispatch(Object key, Runnable task) {
+		return dispatch(key, Priority.NORMAL, task);
+	}
+
+	/**
+	 * Queues the task on the lane of the given key
+	 *
+	 * @return false if the task was dropped or rejected by the overload policy
+	 */
+	public boolean dispatch(Object key, Priority priority, Runnable task) {
+		return dispatch(key, priority, task, true);
+	}
+
+	/**
+	 * Queues the task on the lane of the given key
+	 *
+	 * @param mayWait false if the calling thread must not wait for room in
+	 *        the lane, the task is rejected instead
+	 * @return false if the task was dropped or rejected by the overload policy
+	 */
+	public boolean dispatch(Object key, Priority priority, Runnable task, boolean mayWait) {
+		if (!running) {
+			throw new IllegalStateException("dispatcher is stopped");
+		}
+		return lanes[laneOf(key)].offer(new Task(task, priority), mayWait);
+	}
+
+	/**
+	 * Sets the max number of NORMAL and LOW tasks queued per lane, the
+	 * HIGH tasks of a lane are bounded by the capacity on their own
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0: " + capacity);
+		}
+		this.capacity = capacity;
+		for (Lane lane : lanes) {
+			lane.signalNotFull();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setOverloadPolicy(OverloadPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("policy");
+		}
+		this.policy = policy;
+		for (Lane lane : lanes) {
+			lane.signalNotFull();
+		}
+	}
+
+	public OverloadPolicy getOverloadPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the index of the lane which processes the tasks of the given key
+	 */
+	public int laneOf(Object key) {
+		if (key == null) {
+			return 0;
+		}
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7FFFFFFF) % lanes.length;
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * Number of tasks waiting in the given lane
+	 */
+	public int getQueueDepth(int lane) {
+		return lanes[lane].size;
+	}
+
+	/**
+	 * Highest number of tasks which waited in the given lane at the same time
+	 */
+	public int getPeakQueueDepth(int lane) {
+		return lanes[lane].peakSize;
+	}
+
+	/**
+	 * Number of tasks waiting in all the lanes
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Lane lane : lanes) {
+			depth += lane.size;
+		}
+		return depth;
+	}
+
+	/**
+	 * Number of LOW tasks dropped because their lane was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Number of NORMAL tasks rejected because their lane was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Number of HIGH tasks dropped because their lane held as many HIGH
+	 * tasks as its capacity
+	 */
+	public long getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	/**
+	 * Number of tasks the given lane has executed
+	 */
+	public long getExecutedCount(int lane) {
+		return lanes[lane].executed;
+	}
+
+	/**
+	 * Average time in nanoseconds the tasks of the given lane waited in the queue
+	 */
+	public long getAverageWaitNanos(int lane) {
+		Lane l = lanes[lane];
+		long executed = l.executed;
+		return executed == 0 ? 0 : l.totalWaitNanos / executed;
+	}
+
+	/**
+	 * Longest time in nanoseconds a task of the given lane waited in the queue
+	 */
+	public long getMaxWaitNanos(int lane) {
+		return lanes[lane].maxWaitNanos;
+	}
+
+	/**
+	 * Average time in nanoseconds the given lane spent executing a task
+	 */
+	public long getAverageServiceNanos(int lane) {
+		Lane l = lanes[lane];
+		long executed = l.executed;
+		return executed == 0 ? 0 : l.totalServiceNanos / executed;
+	}
+
+	/**
+	 * Stops the lane threads, queued tasks are discarded
+	 */
+	public void stop() {
+		running = false;
+		for (Lane lane : lanes) {
+			lane.thread.interrupt();
+			lane.signalNotFull();
+		}
+	}
+
+	private static final class Task {
+		private final Runnable runnable;
+		private final Priority priority;
+		private final long enqueuedAt = System.nanoTime();
+
+		private Task(Runnable runnable, Priority priority) {
+			this.runnable = runnable;
+			this.priority = priority;
+		}
+	}
+
+	private final class Lane implements Runnable {
+		/* one queue per priority, guarded by the lock */
+		private final ArrayDeque<Task>[] queues;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		private volatile int size;
+		private volatile int peakSize;
+
+		private final Thread thread;
+
+		/* written by the lane thread only */
+		private volatile long executed;
+		private volatile long totalWaitNanos;
+		private volatile long maxWaitNanos;
+		private volatile long totalServiceNanos;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Lane(String name) {
+			queues = new ArrayDeque[Priority.values().length];
+			for (int i = 0; i < queues.length; i++) {
+				queues[i] = new ArrayDeque<Task>();
+			}
+			thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private boolean offer(Task task, boolean mayWait) {
+			lock.lock();
+			try {
+				if (task.priority == Priority.HIGH) {
+					if (queues[Priority.HIGH.ordinal()].size() >= capacity) {
+						overflowCount.incrementAndGet();
+						return false;
+					}
+					enqueue(task);
+					return true;
+				}
+				if (size < capacity) {
+					enqueue(task);
+					return true;
+				}
+				switch (policy) {
+				case DROP_OLDEST:
+					Task oldest = queues[Priority.LOW.ordinal()].pollFirst();
+					if (oldest != null) {
+						size--;
+						droppedCount.incrementAndGet();
+						enqueue(task);
+						return true;
+					}
+					if (task.priority == Priority.LOW) {
+						droppedCount.incrementAndGet();
+						return false;
+					}
+					return awaitAndEnqueue(task, mayWait);
+				case REJECT:
+					if (task.priority == Priority.LOW) {
+						droppedCount.incrementAndGet();
+					} else {
+						rejectedCount.incrementAndGet();
+					}
+					return false;
+				default:
+					return awaitAndEnqueue(task, mayWait);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/*
+		 * Waits for room in the lane, called with the lock held
+		 */
+		private boolean awaitAndEnqueue(Task task, boolean mayWait) {
+			if (!mayWait) {
+				if (task.priority == Priority.LOW) {
+					droppedCount.incrementAndGet();
+				} else {
+					rejectedCount.incrementAndGet();
+				}
+				return false;
+			}
+			try {
+				while (size >= capacity && running && policy != OverloadPolicy.REJECT) {
+					notFull.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				droppedCount.incrementAndGet();
+				return false;
+			}
+			if (size >= capacity && policy == OverloadPolicy.REJECT) {
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+			enqueue(task);
+			return true;
+		}
+
+		private void enqueue(Task task) {
+			queues[task.priority.ordinal()].addLast(task);
+			int newSize = size + 1;
+			size = newSize;
+			if (newSize > peakSize) {
+				peakSize = newSize;
+			}
+			notEmpty.signal();
+		}
+
+		private Task take() throws InterruptedException {
+			lock.lock();
+			try {
+				while (size == 0) {
+					notEmpty.await();
+				}
+				Task task = null;
+				for (ArrayDeque<Task> queue : queues) {
+					task = queue.pollFirst();
+					if (task != null) {
+						break;
+					}
+				}
+				size--;
+				notFull.signal();
+				return task;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void signalNotFull() {
+			lock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Task task;
+				try {
+					task = take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				long start = System.nanoTime();
+				try {
+					task.runnable.run();
+				} catch (Throwable t) {
+					LOG.warn("An exception was thrown while dispatching on " + thread.getName(), t);
+				}
+				long end = System.nanoTime();
+
+				long wait = start - task.enqueuedAt;
+				totalWaitNanos += wait;
+				if (wait > maxWaitNanos) {
+					maxWaitNanos = wait;
+				}
+				totalServiceNanos += end - start;
+				executed++;
+			}
+		}
+	}
+}
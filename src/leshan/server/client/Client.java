@@ -31,13 +31,13 @@ package leshan.server.client;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 
 import leshan.LinkObject;
 import leshan.util.Validate;
 
+import com.ibm.mqttv3.binding.Framing;
+
 /**
  * A LW-M2M client registered on the server
  */
@@ -73,7 +73,7 @@ public class Client {
 
     private final String registrationId;
 
-    private LinkObject[] objectLinks;
+    private volatile ObjectLinks objectLinks;
 
     /** The location where LWM2M objects are hosted on the device */
     private String rootPath = "/";
@@ -87,6 +87,12 @@ public class Client {
     private String organizationID;
     private String applicationID;
 
+    // payload framing negotiated during registration
+    private Framing framing = Framing.TEXT;
+
+    // hash of the object list as registered, an update with the same hash leaves the links alone
+    private String objectLinksHash;
+
     public Client(String registrationId, String endpoint, InetAddress address, int port,
             InetSocketAddress registrationEndpoint) {
         this(registrationId, endpoint, address, port, null, null, null, null, null, registrationEndpoint);
@@ -167,88 +173,30 @@ public class Client {
         return registrationEndpointAddress;
     }
 
+    /**
+     * Returns a copy of the links sorted by object, object instance and resource, <code>null</code> if the client did
+     * not register any. {@link #getLinks()} shares them without copying.
+     */
     public LinkObject[] getObjectLinks() {
-        // sort the list of objects
-        if (objectLinks == null) {
-            return null;
-        }
-        LinkObject[] res = Arrays.copyOf(objectLinks, objectLinks.length);
-
-        Arrays.sort(res, new Comparator<LinkObject>() {
-
-            /* sort by objectid, object instance and ressource */
-            @Override
-            public int compare(LinkObject o1, LinkObject o2) {
-                if (o1 == null && o2 == null)
-                    return 0;
-                if (o1 == null)
-                    return -1;
-                if (o2 == null)
-                    return 1;
-                // by object
-                Integer oi1 = o1.getObjectId();
-                Integer oi2 = o2.getObjectId();
-
-                if (oi1 == null && oi2 == null) {
-                    return 0;
-                }
-                if (oi1 == null) {
-                    return -1;
-                }
-                if (oi2 == null) {
-                    return 1;
-                }
-                int oicomp = oi1.compareTo(oi2);
-                if (oicomp != 0) {
-                    return oicomp;
-                }
-
-                Integer oii1 = o1.getObjectInstanceId();
-                Integer oii2 = o2.getObjectInstanceId();
-                if (oii1 == null && oii2 == null) {
-                    return 0;
-                }
-                if (oii1 == null) {
-                    return -1;
-                }
-                if (oii2 == null) {
-                    return 1;
-                }
-                int oiicomp = oii1.compareTo(oii2);
-                if (oiicomp != 0) {
-                    return oiicomp;
-                }
-
-                Integer or1 = o1.getResourceId();
-                Integer or2 = o2.getResourceId();
-                if (or1 == null && or2 == null) {
-                    return 0;
-                }
-                if (or1 == null) {
-                    return -1;
-                }
-                if (or2 == null) {
-                    return 1;
-                }
-                return or1.compareTo(or2);
-
-            }
-        });
-
-        return res;
+        ObjectLinks links = objectLinks;
+        return links == null ? null : links.toArray();
+    }
+
+    /**
+     * Returns the sorted links the client registered, the same instance until the next update of the object list
+     */
+    public ObjectLinks getLinks() {
+        ObjectLinks links = objectLinks;
+        return links == null ? ObjectLinks.EMPTY : links;
     }
 
     void setObjectLinks(LinkObject[] objectLinks) {
-        this.objectLinks = objectLinks;
+        ObjectLinks links = objectLinks == null ? null : ObjectLinks.of(objectLinks);
+        this.objectLinks = links;
 
         // extract the root objects path from the object links
-        if (objectLinks != null) {
-            for (LinkObject link : objectLinks) {
-                if (link != null && "oma.lwm2m".equals(link.getAttributes().get("rt"))) {
-                    rootPath = link.getUrl();
-                    break;
-                }
-            }
+        if (links != null && links.getRootPath() != null) {
+            rootPath = links.getRootPath();
         }
     }
 
@@ -340,12 +288,31 @@ public class Client {
     	this.applicationID = applicationID;
     }
 
+    public synchronized Framing getFraming() {
+        return this.framing;
+    }
+
+    public synchronized void setFraming(Framing framing) {
+        this.framing = framing;
+    }
+
+    /**
+     * Returns the hash of the object list the links were parsed from, <code>null</code> if unknown
+     */
+    public synchronized String getObjectLinksHash() {
+        return this.objectLinksHash;
+    }
+
+    public synchronized void setObjectLinksHash(String objectLinksHash) {
+        this.objectLinksHash = objectLinksHash;
+    }
+
     @Override
     public String toString() {
         return String
                 .format("Client [registrationDate=%s, address=%s, port=%s, registrationEndpoint=%s, lifeTimeInSec=%s, smsNumber=%s, lwM2mVersion=%s, bindingMode=%s, endpoint=%s, registrationId=%s, objectLinks=%s, lastUpdate=%s, failedLastRequest=%s]",
                         registrationDate, address, port, registrationEndpointAddress, lifeTimeInSec, smsNumber,
-                        lwM2mVersion, bindingMode, endpoint, registrationId, Arrays.toString(objectLinks), lastUpdate,
+                        lwM2mVersion, bindingMode, endpoint, registrationId, objectLinks, lastUpdate,
                         LastRequesttimedout);
     }
 
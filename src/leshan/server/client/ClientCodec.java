@@ -0,0 +1,152 @@
+package leshan.server.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+
+import leshan.LinkObject;
+
+import com.ibm.mqttv3.binding.Framing;
+
+/**
+ * Encodes the full state of a {@link Client} into bytes and back, for the registries which keep the clients outside
+ * of the heap of one server.
+ * <p>
+ * The object links are written in the CoRE link format, the other fields in the {@link DataOutputStream} format. A
+ * <code>null</code> string or byte array is written as the length -1. Fields added later are written last and are
+ * optional when decoding, so older journals remain readable.
+ * </p>
+ */
+public final class ClientCodec {
+
+    private ClientCodec() {
+    }
+
+    public static byte[] encode(Client client) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            encode(client, new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void encode(Client client, DataOutputStream out) throws IOException {
+        writeString(out, client.getRegistrationId());
+        writeString(out, client.getEndpoint());
+        InetAddress address = client.getAddress();
+        writeBytes(out, address == null ? null : address.getAddress());
+        out.writeInt(client.getPort());
+        writeString(out, client.getLwM2mVersion());
+        out.writeLong(client.getLifeTimeInSec());
+        writeString(out, client.getSmsNumber());
+        writeString(out, client.getBindingMode().name());
+        writeString(out, serialize(client.getObjectLinks()));
+        out.writeLong(client.getRegistrationDate().getTime());
+        out.writeLong(client.getLastUpdate().getTime());
+        writeString(out, client.getOrganizationID());
+        writeString(out, client.getApplicationID());
+        writeString(out, client.getFraming().name());
+        // added later, optional when decoding
+        writeString(out, client.getObjectLinksHash());
+    }
+
+    public static Client decode(byte[] data) throws IOException {
+        return decode(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    public static Client decode(DataInputStream in) throws IOException {
+        String registrationId = readString(in);
+        String endpoint = readString(in);
+        byte[] address = readBytes(in);
+        int port = in.readInt();
+        String lwM2mVersion = readString(in);
+        long lifetime = in.readLong();
+        String smsNumber = readString(in);
+        BindingMode binding = BindingMode.valueOf(readString(in));
+        String links = readString(in);
+        Date registrationDate = new Date(in.readLong());
+        Date lastUpdate = new Date(in.readLong());
+        String organizationID = readString(in);
+        String applicationID = readString(in);
+        Framing framing = Framing.valueOf(readString(in));
+
+        Client client = new Client(registrationId, endpoint, address == null ? null
+                : InetAddress.getByAddress(address), port, lwM2mVersion, lifetime, smsNumber, binding,
+                links == null ? null : LinkObject.parse(links.getBytes(StandardCharsets.UTF_8)), registrationDate,
+                null);
+        client.setLastUpdate(lastUpdate);
+        client.setOrganizationID(organizationID);
+        client.setApplicationID(applicationID);
+        client.setFraming(framing);
+        if (in.available() > 0) {
+            client.setObjectLinksHash(readString(in));
+        }
+        return client;
+    }
+
+    /**
+     * Writes the links in the CoRE link format LinkObject.parse reads
+     */
+    public static String serialize(LinkObject[] links) {
+        if (links == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (LinkObject link : links) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append('<').append(link.getUrl()).append('>');
+            Map<String, Object> attributes = link.getAttributes();
+            if (attributes != null) {
+                for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                    sb.append(';').append(attribute.getKey());
+                    Object value = attribute.getValue();
+                    if (value instanceof String) {
+                        sb.append("=\"").append(value).append('"');
+                    } else if (value != null) {
+                        sb.append('=').append(value);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+}
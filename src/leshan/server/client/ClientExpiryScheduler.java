@@ -0,0 +1,183 @@
+package leshan.server.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mqttv3.binding.HashedWheelTimer;
+import com.ibm.mqttv3.binding.HashedWheelTimer.Timeout;
+import com.ibm.mqttv3.binding.HashedWheelTimer.TimerTask;
+
+/**
+ * De-registers the clients of a {@link ClientRegistry} once their lifetime has elapsed without an update.
+ * <p>
+ * Each registered client has one deadline in a timing wheel, the end of its lifetime counted from its last update.
+ * A registration or an update replaces the deadline of the client and a de-registration cancels it, both in constant
+ * time, so nothing scans the registered clients. An expired client is de-registered from the registry, whose
+ * listeners cancel its observations.
+ * </p>
+ */
+public class ClientExpiryScheduler implements ClientRegistryListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientExpiryScheduler.class);
+
+    /* lifetimes are in seconds */
+    private static final long TICK_MILLIS = 1000;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final ClientRegistry registry;
+
+    private final Map<String /* registration id */, Timeout> deadlines = new ConcurrentHashMap<>();
+
+    private final AtomicLong expiredClients = new AtomicLong();
+
+    /* guarded by this */
+    private HashedWheelTimer timer;
+    /* de-registering notifies the listeners, which may block on the broker */
+    private ExecutorService expirer;
+
+    public ClientExpiryScheduler(ClientRegistry registry) {
+        Validate.notNull(registry);
+        this.registry = registry;
+    }
+
+    /**
+     * Schedules the expiry of the clients already registered and of those to come
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = new HashedWheelTimer("client-expiry-timer", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        expirer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "client-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        registry.addListener(this);
+        for (Client client : registry.allClients()) {
+            schedule(client);
+        }
+    }
+
+    /**
+     * Stops expiring the clients, the scheduler can be started again
+     */
+    public synchronized void stop() {
+        if (timer == null) {
+            return;
+        }
+        registry.removeListener(this);
+        timer.stop();
+        expirer.shutdownNow();
+        timer = null;
+        expirer = null;
+        deadlines.clear();
+    }
+
+    /**
+     * Returns the number of clients de-registered because their lifetime elapsed
+     */
+    public long getExpiredCount() {
+        return expiredClients.get();
+    }
+
+    /**
+     * Returns the number of clients waiting for their deadline
+     */
+    public int getScheduledCount() {
+        return deadlines.size();
+    }
+
+    @Override
+    public void registered(Client client) {
+        schedule(client);
+    }
+
+    @Override
+    public void updated(Client clientUpdated) {
+        schedule(clientUpdated);
+    }
+
+    @Override
+    public void unregistered(Client client) {
+        Timeout deadline = deadlines.remove(client.getRegistrationId());
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    /*
+     * Replaces the deadline of the client by the end of its lifetime
+     */
+    private void schedule(final Client client) {
+        final HashedWheelTimer wheel;
+        final ExecutorService executor;
+        synchronized (this) {
+            wheel = timer;
+            executor = expirer;
+        }
+        if (wheel == null) {
+            return;
+        }
+        Timeout deadline;
+        try {
+            deadline = wheel.newTimeout(new TimerTask() {
+                @Override
+                public void run(final Timeout timeout) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            expire(client, timeout);
+                        }
+                    });
+                }
+            }, remainingMillis(client), TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // stopped in the meantime
+            return;
+        }
+        Timeout previous = deadlines.put(client.getRegistrationId(), deadline);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    private void expire(Client client, Timeout deadline) {
+        String registrationId = client.getRegistrationId();
+        if (deadlines.get(registrationId) != deadline) {
+            // replaced or cancelled while waiting for this thread
+            return;
+        }
+        if (remainingMillis(client) > 0) {
+            // updated without the listener being told
+            schedule(client);
+            return;
+        }
+        deadlines.remove(registrationId, deadline);
+        try {
+            if (registry.deregisterClient(registrationId) != null) {
+                expiredClients.incrementAndGet();
+                LOG.debug("Client {} expired", client.getEndpoint());
+            }
+        } catch (ClientRegistrationException e) {
+            LOG.warn("Unable to de-register the expired client " + client.getEndpoint(), e);
+        }
+    }
+
+    private static long remainingMillis(Client client) {
+        return client.getLastUpdate().getTime() + client.getLifeTimeInSec() * 1000 - System.currentTimeMillis();
+    }
+}
@@ -36,6 +36,8 @@ import java.util.Date;
 import leshan.LinkObject;
 import leshan.util.Validate;
 
+import com.ibm.mqttv3.binding.Framing;
+
 /**
  * A container object for updating a LW-M2M client's registration properties on the server.
  * 
@@ -58,13 +60,35 @@ public class ClientUpdate {
 
     private final LinkObject[] objectLinks;
 
+    private final String objectLinksHash;
+
+    private final Framing framing;
+
     public ClientUpdate(String registrationId, InetAddress address, Integer port) {
         this(registrationId, address, port, null, null, null, null);
     }
 
     public ClientUpdate(String registrationId, InetAddress address, Integer port, Long lifetime, String smsNumber,
             BindingMode binding, LinkObject[] objectLinks) {
-        this(registrationId, address, port, lifetime, smsNumber, binding, objectLinks, null);
+        this(registrationId, address, port, lifetime, smsNumber, binding, objectLinks, (Date) null);
+    }
+
+    /**
+     * @param objectLinksHash the hash of the object list the objectLinks were parsed from
+     */
+    public ClientUpdate(String registrationId, InetAddress address, Integer port, Long lifetime, String smsNumber,
+            BindingMode binding, LinkObject[] objectLinks, String objectLinksHash) {
+        this(registrationId, address, port, lifetime, smsNumber, binding, objectLinks, null, objectLinksHash, null);
+    }
+
+    /**
+     * @param objectLinksHash the hash of the object list the objectLinks were parsed from
+     * @param framing the framing of the messages the client switched to
+     */
+    public ClientUpdate(String registrationId, InetAddress address, Integer port, Long lifetime, String smsNumber,
+            BindingMode binding, LinkObject[] objectLinks, String objectLinksHash, Framing framing) {
+        this(registrationId, address, port, lifetime, smsNumber, binding, objectLinks, null, objectLinksHash,
+                framing);
     }
 
     /**
@@ -82,6 +106,12 @@ public class ClientUpdate {
      */
     public ClientUpdate(String registrationId, InetAddress address, Integer port, Long lifetime, String smsNumber,
             BindingMode binding, LinkObject[] objectLinks, Date registrationDate) {
+        this(registrationId, address, port, lifetime, smsNumber, binding, objectLinks, registrationDate, null, null);
+    }
+
+    private ClientUpdate(String registrationId, InetAddress address, Integer port, Long lifetime, String smsNumber,
+            BindingMode binding, LinkObject[] objectLinks, Date registrationDate, String objectLinksHash,
+            Framing framing) {
 
         if (registrationId == null) {
             throw new NullPointerException("Registration ID must not be null");
@@ -93,6 +123,8 @@ public class ClientUpdate {
         this.lifeTimeInSec = lifetime;
         this.bindingMode = binding;
         this.smsNumber = smsNumber;
+        this.objectLinksHash = objectLinksHash;
+        this.framing = framing;
     }
 
     public String getRegistrationId() {
@@ -103,6 +135,10 @@ public class ClientUpdate {
         return address;
     }
 
+    public String getObjectLinksHash() {
+        return objectLinksHash;
+    }
+
     public Integer getPort() {
         return port;
     }
@@ -123,6 +159,10 @@ public class ClientUpdate {
         return bindingMode;
     }
 
+    public Framing getFraming() {
+        return framing;
+    }
+
     /**
      * Applies the registration property changes to a given client registration object.
      * 
@@ -143,6 +183,10 @@ public class ClientUpdate {
             client.setObjectLinks(getObjectLinks());
         }
 
+        if (getObjectLinksHash() != null) {
+            client.setObjectLinksHash(getObjectLinksHash());
+        }
+
         if (getLifeTimeInSec() != null) {
             client.setLifeTimeInSec(getLifeTimeInSec());
         }
@@ -155,6 +199,10 @@ public class ClientUpdate {
             client.setSmsNumber(getSmsNumber());
         }
 
+        if (getFraming() != null) {
+            client.setFraming(getFraming());
+        }
+
         // this needs to be done in any case, even if no properties have changed, in order
         // to extend the client registration's time-to-live period ...
         client.setLastUpdate(new Date());
@@ -163,9 +211,9 @@ public class ClientUpdate {
     @Override
     public String toString() {
         return String
-                .format("ClientUpdate [address=%s, port=%s, lifeTimeInSec=%s, smsNumber=%s, bindingMode=%s, registrationId=%s, objectLinks=%s]",
+                .format("ClientUpdate [address=%s, port=%s, lifeTimeInSec=%s, smsNumber=%s, bindingMode=%s, registrationId=%s, objectLinks=%s, framing=%s]",
                         address, port, lifeTimeInSec, smsNumber, bindingMode, registrationId,
-                        Arrays.toString(objectLinks));
+                        Arrays.toString(objectLinks), framing);
     }
 
 }
@@ -0,0 +1,535 @@
+package leshan.server.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ClientRegistry} which survives a restart of the server.
+ * <p>
+ * Every registration, update and de-registration is appended to a journal in a memory-mapped file. On start-up the
+ * journal is replayed, so the registered clients can be addressed right away instead of waiting for all of them to
+ * register again. Registrations whose lifetime expired in the meantime are dropped.
+ * </p>
+ * <p>
+ * A record holds its length, a CRC32 and the event, a torn record at the end of the journal ends the replay. Once the
+ * journal holds many more records than there are clients, it is compacted into one record per client, written to a
+ * new file which then replaces the journal. The new file is written without holding the lock of the registry, the
+ * records appended in the meantime are copied after it when the files are swapped.
+ * </p>
+ * <p>
+ * The mapped pages are written to disk by the operating system, a crash of the process loses nothing. The journal is
+ * forced to the disk on every maintenance run and when the registry is stopped.
+ * </p>
+ */
+public class JournalClientRegistry implements ClientRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalClientRegistry.class);
+
+    private static final byte REGISTERED = 1;
+    private static final byte UPDATED = 2;
+    private static final byte DEREGISTERED = 3;
+
+    /* length and crc */
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_SIZE = 4 * 1024 * 1024;
+
+    /* compact once there are this many more records than clients */
+    private static final int MIN_OBSOLETE_RECORDS = 10000;
+
+    private static final long MAINTENANCE_PERIOD_SEC = 2;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final Map<String /* end-point */, Client> clientsByEp = new ConcurrentHashMap<>();
+    private final Map<String /* registration id */, Client> clientsByRegId = new ConcurrentHashMap<>();
+
+    private final List<ClientRegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    /* guarded by this */
+    private RandomAccessFile raf;
+    private MappedByteBuffer journal;
+    private long records;
+    /* incremented whenever the journal file is replaced or closed */
+    private long generation;
+
+    /* one compaction at a time, never acquired with the lock of the registry held */
+    private final Object compaction = new Object();
+
+    private ScheduledExecutorService maintenance;
+
+    /**
+     * Opens the journal in the given file and replays it, the file is created if it does not exist.
+     */
+    public JournalClientRegistry(File file) throws IOException {
+        Validate.notNull(file);
+        this.file = file;
+        open();
+        long start = System.nanoTime();
+        replay();
+        LOG.info("Replayed {} records of {} into {} clients in {} ms", records, file, clientsByEp.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public Client get(String endpoint) {
+        return clientsByEp.get(endpoint);
+    }
+
+    @Override
+    public Collection<Client> allClients() {
+        return Collections.unmodifiableCollection(clientsByEp.values());
+    }
+
+    @Override
+    public void addListener(ClientRegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(ClientRegistryListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public Client registerClient(Client client) throws ClientRegistrationException {
+        Validate.notNull(client);
+        LOG.debug("Registering new client: {}", client);
+
+        Client previous;
+        synchronized (this) {
+            append(REGISTERED, ClientCodec.encode(client));
+            previous = clientsByEp.put(client.getEndpoint(), client);
+            if (previous != null) {
+                clientsByRegId.remove(previous.getRegistrationId());
+            }
+            clientsByRegId.put(client.getRegistrationId(), client);
+        }
+        if (previous != null) {
+            for (ClientRegistryListener l : listeners) {
+                l.unregistered(previous);
+            }
+        }
+        for (ClientRegistryListener l : listeners) {
+            l.registered(client);
+        }
+        return previous;
+    }
+
+    @Override
+    public Client updateClient(ClientUpdate update) throws ClientRegistrationException {
+        Validate.notNull(update);
+        LOG.debug("Updating registration for client: {}", update);
+
+        Client client;
+        synchronized (this) {
+            client = clientsByRegId.get(update.getRegistrationId());
+            if (client == null) {
+                return null;
+            }
+            update.apply(client);
+            append(UPDATED, ClientCodec.encode(client));
+        }
+        for (ClientRegistryListener l : listeners) {
+            l.updated(client);
+        }
+        return client;
+    }
+
+    @Override
+    public Client deregisterClient(String registrationId) throws ClientRegistrationException {
+        Validate.notNull(registrationId);
+        LOG.debug("Deregistering client with registrationId: {}", registrationId);
+
+        Client client;
+        synchronized (this) {
+            client = remove(registrationId);
+        }
+        if (client != null) {
+            for (ClientRegistryListener l : listeners) {
+                l.unregistered(client);
+            }
+        }
+        return client;
+    }
+
+    /*
+     * Called with the lock held
+     */
+    private Client remove(String registrationId) throws ClientRegistrationException {
+        Client client = clientsByRegId.get(registrationId);
+        if (client == null) {
+            return null;
+        }
+        append(DEREGISTERED, encodeString(registrationId));
+        clientsByRegId.remove(registrationId);
+        clientsByEp.remove(client.getEndpoint(), client);
+        return client;
+    }
+
+    /**
+     * Starts the periodic compaction of the journal and its flush to disk, expired registrations are left to a
+     * {@link ClientExpiryScheduler}.
+     */
+    public synchronized void start() {
+        if (maintenance != null) {
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "client-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenance.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain();
+                } catch (Throwable t) {
+                    LOG.warn("Client journal maintenance failed", t);
+                }
+            }
+        }, MAINTENANCE_PERIOD_SEC, MAINTENANCE_PERIOD_SEC, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the maintenance and forces the journal to disk, the registry can be started again.
+     */
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = maintenance;
+            maintenance = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        synchronized (this) {
+            if (journal != null) {
+                journal.force();
+            }
+        }
+    }
+
+    /**
+     * Stops the registry and releases the journal, the registry can not be used anymore.
+     */
+    public void destroy() throws InterruptedException {
+        stop();
+        synchronized (this) {
+            close();
+        }
+    }
+
+    private void maintain() throws IOException {
+        boolean obsolete;
+        synchronized (this) {
+            obsolete = records - clientsByEp.size() > Math.max(MIN_OBSOLETE_RECORDS, clientsByEp.size());
+        }
+        if (obsolete) {
+            compact();
+        }
+        synchronized (this) {
+            if (journal != null) {
+                journal.force();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per registered client.
+     * <p>
+     * The clients are listed under the lock, their records are written to the new file without it. A client updated,
+     * replaced or removed in the meantime has a later record in the journal, which is copied after the compacted
+     * records when the files are swapped and wins at the replay.
+     * </p>
+     */
+    public void compact() throws IOException {
+        synchronized (compaction) {
+            long start = System.nanoTime();
+            List<Client> clients;
+            long obsolete;
+            long startGeneration;
+            int mark;
+            synchronized (this) {
+                if (journal == null) {
+                    return;
+                }
+                clients = new ArrayList<>(clientsByEp.values());
+                obsolete = records;
+                startGeneration = generation;
+                mark = journal.position();
+            }
+            File compacted = newCompactedFile();
+            try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+                FileChannel channel = out.getChannel();
+                long written = write(channel, clients);
+                channel.force(true);
+                synchronized (this) {
+                    if (journal == null || generation != startGeneration) {
+                        // closed, or compacted by a journal which could not grow anymore
+                        return;
+                    }
+                    ByteBuffer appended = journal.duplicate();
+                    appended.limit(journal.position());
+                    appended.position(mark);
+                    written += drain(channel, appended);
+                    channel.force(true);
+                    out.close();
+                    swap(compacted, written, clients.size() + (records - obsolete));
+                }
+                LOG.info("Compacted {} records of {} into {} in {} ms", obsolete, file, clients.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } finally {
+                Files.deleteIfExists(compacted.toPath());
+            }
+        }
+    }
+
+    /*
+     * Compacts the journal with the lock held, when it can not grow anymore
+     */
+    private void compactLocked() throws IOException {
+        File compacted = newCompactedFile();
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            FileChannel channel = out.getChannel();
+            long written = write(channel, clientsByEp.values());
+            channel.force(true);
+            out.close();
+            swap(compacted, written, clientsByEp.size());
+        } finally {
+            Files.deleteIfExists(compacted.toPath());
+        }
+    }
+
+    private File newCompactedFile() throws IOException {
+        return Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName() + ".", ".compact")
+                .toFile();
+    }
+
+    /*
+     * Called with the lock held, replaces the journal with the compacted file holding the given records
+     */
+    private void swap(File compacted, long written, long count) throws IOException {
+        close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        open();
+        // append after the records just written, the clients in memory stay as they are
+        journal.position((int) written);
+        records = count;
+    }
+
+    /*
+     * Writes one record per client, gathered into large writes
+     */
+    private static long write(FileChannel channel, Collection<Client> clients) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        long written = 0;
+        for (Client client : clients) {
+            ByteBuffer record = record(REGISTERED, ClientCodec.encode(client));
+            if (record.remaining() > buffer.remaining()) {
+                buffer.flip();
+                written += drain(channel, buffer);
+                buffer.clear();
+                if (record.remaining() > buffer.remaining()) {
+                    written += drain(channel, record);
+                    continue;
+                }
+            }
+            buffer.put(record);
+        }
+        buffer.flip();
+        return written + drain(channel, buffer);
+    }
+
+    private static long drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Returns the number of records in the journal
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /* ************** journal ************** */
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        long size = Math.max(raf.length(), INITIAL_SIZE);
+        journal = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void close() {
+        if (raf == null) {
+            return;
+        }
+        try {
+            journal.force();
+            raf.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close " + file, e);
+        }
+        raf = null;
+        journal = null;
+        generation++;
+    }
+
+    /*
+     * Reads the records from the start of the journal and leaves the position after the last valid one
+     */
+    private void replay() throws IOException {
+        journal.position(0);
+        while (journal.remaining() >= HEADER_SIZE) {
+            int start = journal.position();
+            int length = journal.getInt();
+            int crc = journal.getInt();
+            if (length <= 0 || length > journal.remaining()) {
+                journal.position(start);
+                break;
+            }
+            byte[] data = new byte[length];
+            journal.get(data);
+            if (crc != crc(data, 0, length)) {
+                LOG.warn("Truncating {} at the torn record at {}", file, start);
+                journal.position(start);
+                break;
+            }
+            apply(data);
+            records++;
+        }
+        // clear the header of a torn record, what remains of it fails the CRC once records follow
+        int end = journal.position();
+        for (int i = end; i < Math.min(end + HEADER_SIZE, journal.capacity()); i++) {
+            journal.put(i, (byte) 0);
+        }
+    }
+
+    private void apply(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+        switch (data[0]) {
+        case REGISTERED:
+        case UPDATED:
+            Client client = ClientCodec.decode(in);
+            if (!client.isAlive()) {
+                // remove what an earlier record registered
+                Client stale = clientsByRegId.remove(client.getRegistrationId());
+                if (stale != null) {
+                    clientsByEp.remove(stale.getEndpoint(), stale);
+                }
+                break;
+            }
+            Client previous = clientsByEp.put(client.getEndpoint(), client);
+            if (previous != null) {
+                clientsByRegId.remove(previous.getRegistrationId());
+            }
+            clientsByRegId.put(client.getRegistrationId(), client);
+            break;
+        case DEREGISTERED:
+            Client removed = clientsByRegId.remove(ClientCodec.readString(in));
+            if (removed != null) {
+                clientsByEp.remove(removed.getEndpoint(), removed);
+            }
+            break;
+        default:
+            throw new IOException("Unknown record type " + data[0]);
+        }
+    }
+
+    /*
+     * Called with the lock held
+     */
+    private void append(byte type, byte[] payload) throws ClientRegistrationException {
+        ByteBuffer record = record(type, payload);
+        try {
+            if (journal.remaining() < record.remaining() + HEADER_SIZE) {
+                grow(record.remaining());
+            }
+        } catch (IOException e) {
+            throw new ClientRegistrationException("Unable to write the client journal", e);
+        }
+        journal.put(record);
+        records++;
+    }
+
+    private void grow(int needed) throws IOException {
+        int position = journal.position();
+        long size = Math.max((long) journal.capacity() * 2, (long) position + needed + HEADER_SIZE);
+        if (size > Integer.MAX_VALUE) {
+            compactLocked();
+            if (journal.remaining() >= needed + HEADER_SIZE) {
+                return;
+            }
+            throw new IOException("Client journal is full");
+        }
+        journal.force();
+        journal = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        journal.position(position);
+    }
+
+    private static ByteBuffer record(byte type, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 1 + payload.length);
+        record.putInt(1 + payload.length);
+        record.putInt(0);
+        record.put(type);
+        record.put(payload);
+        record.putInt(4, crc(record.array(), HEADER_SIZE, 1 + payload.length));
+        record.flip();
+        return record;
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encodeString(String value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            ClientCodec.writeString(new DataOutputStream(bytes), value);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package leshan.server.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import leshan.LinkObject;
+
+/**
+ * The objects a client hosts, as registered.
+ * <p>
+ * The links are sorted once by object, object instance and resource when the list is registered or updated and never
+ * change afterwards, so every reader shares the same instance. The object instances of each object are indexed to
+ * tell whether the client exposes an object or an instance without going through the links.
+ * </p>
+ */
+public final class ObjectLinks {
+
+    public static final ObjectLinks EMPTY = new ObjectLinks(new LinkObject[0], null);
+
+    private static final int[] NO_INSTANCES = new int[0];
+
+    /* sort by objectid, object instance and resource, links without id first */
+    private static final Comparator<LinkObject> ORDER = new Comparator<LinkObject>() {
+        @Override
+        public int compare(LinkObject o1, LinkObject o2) {
+            if (o1 == null || o2 == null) {
+                return o1 == o2 ? 0 : (o1 == null ? -1 : 1);
+            }
+            int compare = compareIds(o1.getObjectId(), o2.getObjectId());
+            if (compare != 0 || o1.getObjectId() == null) {
+                return compare;
+            }
+            compare = compareIds(o1.getObjectInstanceId(), o2.getObjectInstanceId());
+            if (compare != 0 || o1.getObjectInstanceId() == null) {
+                return compare;
+            }
+            return compareIds(o1.getResourceId(), o2.getResourceId());
+        }
+
+        private int compareIds(Integer id1, Integer id2) {
+            if (id1 == null || id2 == null) {
+                return id1 == id2 ? 0 : (id1 == null ? -1 : 1);
+            }
+            return id1.intValue() < id2.intValue() ? -1 : (id1.intValue() == id2.intValue() ? 0 : 1);
+        }
+    };
+
+    private final LinkObject[] links;
+    private final List<LinkObject> view;
+    private final String rootPath;
+
+    /* object id -> sorted ids of its instances */
+    private final Map<Integer, int[]> instances;
+
+    private ObjectLinks(LinkObject[] sorted, String rootPath) {
+        this.links = sorted;
+        this.view = Collections.unmodifiableList(Arrays.asList(sorted));
+        this.rootPath = rootPath;
+        this.instances = index(sorted);
+    }
+
+    /**
+     * Sorts the links of a registration, the given array is left as it is
+     *
+     * @return {@link #EMPTY} if there are no links
+     */
+    public static ObjectLinks of(LinkObject[] links) {
+        if (links == null || links.length == 0) {
+            return EMPTY;
+        }
+        // the root path is the first one in the order of the registration
+        String rootPath = null;
+        for (LinkObject link : links) {
+            if (link != null && "oma.lwm2m".equals(link.getAttributes().get("rt"))) {
+                rootPath = link.getUrl();
+                break;
+            }
+        }
+        LinkObject[] sorted = Arrays.copyOf(links, links.length);
+        Arrays.sort(sorted, ORDER);
+        return new ObjectLinks(sorted, rootPath);
+    }
+
+    private static Map<Integer, int[]> index(LinkObject[] sorted) {
+        Map<Integer, List<Integer>> ids = new HashMap<>();
+        for (LinkObject link : sorted) {
+            if (link == null || link.getObjectId() == null) {
+                continue;
+            }
+            List<Integer> objectInstances = ids.get(link.getObjectId());
+            if (objectInstances == null) {
+                objectInstances = new ArrayList<>(2);
+                ids.put(link.getObjectId(), objectInstances);
+            }
+            Integer instance = link.getObjectInstanceId();
+            // sorted, so a duplicate is the last one added
+            if (instance != null && (objectInstances.isEmpty()
+                    || !instance.equals(objectInstances.get(objectInstances.size() - 1)))) {
+                objectInstances.add(instance);
+            }
+        }
+        Map<Integer, int[]> index = new HashMap<>(ids.size() * 2);
+        for (Map.Entry<Integer, List<Integer>> entry : ids.entrySet()) {
+            List<Integer> objectInstances = entry.getValue();
+            int[] array = objectInstances.isEmpty() ? NO_INSTANCES : new int[objectInstances.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = objectInstances.get(i);
+            }
+            index.put(entry.getKey(), array);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the sorted links, the list can not be modified
+     */
+    public List<LinkObject> asList() {
+        return view;
+    }
+
+    /**
+     * Returns a sorted copy of the links
+     */
+    public LinkObject[] toArray() {
+        return links.clone();
+    }
+
+    public int size() {
+        return links.length;
+    }
+
+    public boolean isEmpty() {
+        return links.length == 0;
+    }
+
+    /**
+     * Returns the path given by the link with the "oma.lwm2m" resource type, <code>null</code> if there is none
+     */
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * Returns true if the client exposes the object
+     */
+    public boolean hasObject(int objectId) {
+        return instances.containsKey(objectId);
+    }
+
+    /**
+     * Returns true if the client exposes the instance of the object
+     */
+    public boolean hasInstance(int objectId, int instanceId) {
+        int[] ids = instances.get(objectId);
+        return ids != null && Arrays.binarySearch(ids, instanceId) >= 0;
+    }
+
+    /**
+     * Returns the sorted ids of the instances of the object, empty if the client does not expose any
+     */
+    public int[] getInstanceIds(int objectId) {
+        int[] ids = instances.get(objectId);
+        return ids == null ? NO_INSTANCES : ids.clone();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(links);
+    }
+}
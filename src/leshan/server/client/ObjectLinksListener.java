@@ -0,0 +1,20 @@
+package leshan.server.client;
+
+import leshan.LinkObject;
+
+/**
+ * Listens to the changes of the objects a registered client hosts.
+ * <p>
+ * An update which leaves the object list unchanged does not notify, only the links which were added to or removed
+ * from the list are given.
+ * </p>
+ */
+public interface ObjectLinksListener {
+
+    /**
+     * @param client the updated client
+     * @param added the links the client hosts since the update
+     * @param removed the links the client does not host anymore
+     */
+    void objectLinksChanged(Client client, LinkObject[] added, LinkObject[] removed);
+}
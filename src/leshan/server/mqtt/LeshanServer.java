@@ -40,13 +40,18 @@ import leshan.core.response.ExceptionConsumer;
 import leshan.core.response.ResponseConsumer;
 import leshan.server.LwM2mServer;
 import leshan.server.client.Client;
+import leshan.server.client.ClientExpiryScheduler;
 import leshan.server.client.ClientRegistry;
 import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.JournalClientRegistry;
+import leshan.server.client.ObjectLinksListener;
 import leshan.server.impl.ClientRegistryImpl;
-import leshan.server.impl.ObservationRegistryImpl;
 import leshan.server.impl.SecurityRegistryImpl;
 import leshan.server.mqtt.impl.MQTTLwM2mRequestSender;
+import leshan.server.mqtt.impl.MQTTObservationRegistry;
 import leshan.server.mqtt.impl.RegisterResource;
+import leshan.server.mqtt.impl.RegistrationAdmission;
+import leshan.server.mqtt.impl.ReplicatedClientRegistry;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.request.LwM2mRequest;
 import leshan.server.security.SecurityRegistry;
@@ -55,8 +60,12 @@ import leshan.util.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ibm.mqttv3.binding.LoopbackBroker;
 import com.ibm.mqttv3.binding.MQTTWrapper;
+import com.ibm.mqttv3.binding.MqttTransportFactory;
 import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+import com.ibm.mqttv3.binding.PahoTransport;
+import com.ibm.mqttv3.binding.QosPolicy;
 import com.ibm.mqttv3.binding.Request;
 
 /**
@@ -68,6 +77,12 @@ import com.ibm.mqttv3.binding.Request;
  * <p>
  * A {@link RequestHandler} is provided to perform server-initiated requests to LW-M2M clients.
  * </p>
+ * <p>
+ * Several servers sharing the endpoint and application can run as the nodes of a cluster, each with its own node id.
+ * The nodes share the requests of the clients through a shared subscription, a client request is delivered to one of
+ * them. Each node sends its own requests with a requestor application of its own, so the responses come back to the
+ * node which sent the request, and the client registry is replicated between the nodes.
+ * </p>
  */
 public class LeshanServer implements LwM2mServer {
 
@@ -76,7 +91,8 @@ public class LeshanServer implements LwM2mServer {
     /** Default MQTT port is 1883 but I am using 1885 as 1883 has something else running*/
     public static final int PORT = 1885;
 
-	private static final int QOS = 2;
+    /** Prefix of the shared subscriptions, the broker delivers each message to one subscriber of the group */
+    public static final String SHARED_SUBSCRIPTION_START = "$share/";
 
 	private static final Logger LOG = LoggerFactory.getLogger(LeshanServer.class);
 
@@ -84,13 +100,21 @@ public class LeshanServer implements LwM2mServer {
     
     private final MQTTLwM2mRequestSender requestSender;
 
+    private final RegisterResource rdResource;
+
     private final ClientRegistry clientRegistry;
 
     private final ObservationRegistry observationRegistry;
+
+    /* de-registers the clients of this node whose lifetime elapsed */
+    private final ClientExpiryScheduler expiryScheduler;
     
     private final String endpointID;
     private final String applicationID;
 
+    /* null unless the server is a node of a cluster */
+    private final String nodeID;
+
 	private MqttV3MessageReceiver callback;
 
     /**
@@ -133,23 +157,63 @@ public class LeshanServer implements LwM2mServer {
             final ClientRegistry clientRegistry, 
             final ObservationRegistry observationRegistry,
             String endpointID, String applicationID) {
+        this(brokerAddress, clientRegistry, observationRegistry, endpointID, applicationID, null);
+    }
+
+    /**
+     * Initialize a server which is a node of a cluster of servers.
+     *
+     * @param brokerAddress the address of the broker the nodes share.
+     * @param clientRegistry the registry of this node, it is replicated to the other nodes.
+     * @param nodeID the identifier of the node, unique in the cluster, <code>null</code> for a server on its own.
+     */
+    public LeshanServer(final InetSocketAddress brokerAddress, 
+            final ClientRegistry clientRegistry, 
+            final ObservationRegistry observationRegistry,
+            String endpointID, String applicationID, String nodeID) {
+        this(transports(brokerAddress), clientRegistry, observationRegistry, endpointID, applicationID, nodeID);
+    }
+
+    private static MqttTransportFactory transports(InetSocketAddress brokerAddress) {
         Validate.notNull(brokerAddress, "IP address cannot be null");
+        return PahoTransport.factory(brokerAddress);
+    }
+
+    /**
+     * Initialize a server which connects through the transports of the given factory, e.g. a {@link LoopbackBroker}
+     * shared with the clients in the same JVM.
+     *
+     * @param transports creates the connections to the broker.
+     * @param clientRegistry the registry of this node, it is replicated to the other nodes.
+     * @param nodeID the identifier of the node, unique in the cluster, <code>null</code> for a server on its own.
+     */
+    public LeshanServer(final MqttTransportFactory transports, 
+            final ClientRegistry clientRegistry, 
+            final ObservationRegistry observationRegistry,
+            String endpointID, String applicationID, String nodeID) {
+        Validate.notNull(transports, "transport factory cannot be null");
 
         this.endpointID = endpointID;
         this.applicationID = applicationID;
+        this.nodeID = nodeID;
         // init registry
-        if (clientRegistry == null) {
-			this.clientRegistry = new ClientRegistryImpl();
+        ClientRegistry registry = clientRegistry == null ? new ClientRegistryImpl() : clientRegistry;
+        if (nodeID == null) {
+			this.clientRegistry = registry;
 		} else {
-			this.clientRegistry = clientRegistry;
+			this.clientRegistry = new ReplicatedClientRegistry(registry, transports, 
+			        endpointID, applicationID, nodeID);
 		}
 
         if (observationRegistry == null) {
-			this.observationRegistry = new ObservationRegistryImpl();
+			this.observationRegistry = new MQTTObservationRegistry();
 		} else {
 			this.observationRegistry = observationRegistry;
 		}
 
+        // each node expires its clients on its own
+        this.expiryScheduler = new ClientExpiryScheduler(registry);
+
         // Cancel observations on client unregistering
         this.clientRegistry.addListener(new ClientRegistryListener() {
 
@@ -168,13 +232,78 @@ public class LeshanServer implements LwM2mServer {
         });
 
         // init MQTT server
-        mqttClient = new MQTTWrapper(brokerAddress, this.endpointID);
+        // the nodes of a cluster need a connection of their own
+        String clientID = nodeID == null ? this.endpointID : this.endpointID + "-" + nodeID;
+        mqttClient = new MQTTWrapper(transports.create(clientID), clientID);
         
         // define /rd resource
-        final RegisterResource rdResource = new RegisterResource(this.clientRegistry);
+        rdResource = new RegisterResource(this.clientRegistry);
         mqttClient.add(rdResource);
 
-        requestSender = new MQTTLwM2mRequestSender(endpointID, applicationID, this.observationRegistry);
+        requestSender = new MQTTLwM2mRequestSender(endpointID, getRequestorApplicationID(), 
+                this.observationRegistry);
+    }
+
+    /**
+     * Adds a listener told about the objects a client adds or removes with
+     * a registration update.
+     */
+    public void addObjectLinksListener(ObjectLinksListener listener) {
+        rdResource.addObjectLinksListener(listener);
+    }
+
+    public void removeObjectLinksListener(ObjectLinksListener listener) {
+        rdResource.removeObjectLinksListener(listener);
+    }
+
+    /**
+     * Limits the registrations of each organization to the given rate, the
+     * devices of an organization reconnecting all at once are told to retry
+     * later instead of starving the other organizations.
+     *
+     * @param ratePerSecond the registrations admitted per second and organization
+     * @param burst the registrations admitted at once, after a quiet period
+     */
+    public void setRegistrationAdmission(double ratePerSecond, int burst) {
+        rdResource.setAdmission(new RegistrationAdmission(ratePerSecond, burst));
+    }
+
+    /**
+     * Returns the admission of the registrations with its admitted and
+     * rejected counts, <code>null</code> if every registration is admitted
+     */
+    public RegistrationAdmission getRegistrationAdmission() {
+        return rdResource.getAdmission();
+    }
+
+    /**
+     * Returns the application the requests of this server are sent from, the
+     * responses are published to it. A node of a cluster has one of its own.
+     */
+    public String getRequestorApplicationID() {
+        return nodeID == null ? applicationID : applicationID + "-" + nodeID;
+    }
+
+    /**
+     * Returns the identifier of the node, <code>null</code> if the server is not part of a cluster
+     */
+    public String getNodeID() {
+        return nodeID;
+    }
+
+    /**
+     * Publishes asynchronously with at most the given number of unacknowledged
+     * messages instead of waiting for each acknowledgement, see {@link MQTTWrapper#setMaxInflight(int)}.
+     */
+    public void setMaxInflight(int maxInflight) {
+        mqttClient.setMaxInflight(maxInflight);
+    }
+
+    /**
+     * Sets the QoS of the published messages per kind and of the subscription.
+     */
+    public void setQosPolicy(QosPolicy qosPolicy) {
+        mqttClient.setQosPolicy(qosPolicy);
     }
 
     /**
@@ -191,24 +320,53 @@ public class LeshanServer implements LwM2mServer {
         callback = new MqttV3MessageReceiver(mqttClient);
         mqttClient.setCallBack(callback);
         requestSender.setMqttV3MessageReceiver(callback);
+        if (observationRegistry instanceof MQTTObservationRegistry) {
+            ((MQTTObservationRegistry) observationRegistry).setMessageReceiver(callback);
+        }
         requestSender.setMqttClient(mqttClient);
         
-        // Subscribe a topic to broker
-        StringBuilder sb = new StringBuilder(20);
-        sb.append(SUBSCRIBE_TOPIC_START+"/+/")
-          .append(this.endpointID)
-          .append("/")
-          .append(this.applicationID)
-          .append("/#");
-        
-        mqttClient.subscribe(sb.toString(), QOS);
+        int qos = mqttClient.getQosPolicy().getSubscribeQos();
+        if (nodeID == null) {
+            // Subscribe a topic to broker
+            StringBuilder sb = new StringBuilder(20);
+            sb.append(SUBSCRIBE_TOPIC_START+"/+/")
+              .append(this.endpointID)
+              .append("/")
+              .append(this.applicationID)
+              .append("/#");
+            
+            mqttClient.subscribe(sb.toString(), qos);
+        } else {
+            // the state of the clients first, then their requests
+            ((ReplicatedClientRegistry) clientRegistry).start();
+            
+            String requests = SHARED_SUBSCRIPTION_START + this.endpointID + "-" + this.applicationID + "/" + 
+                    Request.REQUEST_TOPIC_STARTER + "/+/" + this.endpointID + "/" + this.applicationID + "/#";
+            String responses = Request.RESPONSE_TOPIC_STARTER + "/+/" + this.endpointID + "/" + 
+                    getRequestorApplicationID() + "/#";
+            mqttClient.subscribe(new String[] { requests, responses }, new int[] { qos, qos });
+        }
         
         LOG.info("LW-M2M server started");
 
         // start client registry
-        if (clientRegistry instanceof ClientRegistryImpl) {
-			((ClientRegistryImpl) clientRegistry).start();
-		}
+        ClientRegistry registry = getNodeRegistry();
+        if (registry instanceof ClientRegistryImpl) {
+			((ClientRegistryImpl) registry).start();
+		} else if (registry instanceof JournalClientRegistry) {
+            ((JournalClientRegistry) registry).start();
+        }
+        expiryScheduler.start();
+    }
+
+    /*
+     * Returns the registry which holds the clients on this server
+     */
+    private ClientRegistry getNodeRegistry() {
+        if (clientRegistry instanceof ReplicatedClientRegistry) {
+            return ((ReplicatedClientRegistry) clientRegistry).getDelegate();
+        }
+        return clientRegistry;
     }
 
     /**
@@ -218,12 +376,23 @@ public class LeshanServer implements LwM2mServer {
 	public void stop() {
         mqttClient.stop();
 
-        if (clientRegistry instanceof ClientRegistryImpl) {
+        expiryScheduler.stop();
+        if (clientRegistry instanceof ReplicatedClientRegistry) {
+            ((ReplicatedClientRegistry) clientRegistry).stop();
+        }
+        ClientRegistry registry = getNodeRegistry();
+        if (registry instanceof ClientRegistryImpl) {
             try {
-                ((ClientRegistryImpl) clientRegistry).stop();
+                ((ClientRegistryImpl) registry).stop();
             } catch (final InterruptedException e) {
                 LOG.info("LW-M2M server started");
             }
+        } else if (registry instanceof JournalClientRegistry) {
+            try {
+                ((JournalClientRegistry) registry).stop();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -233,12 +402,23 @@ public class LeshanServer implements LwM2mServer {
     public void destroy() {
         mqttClient.destroy();
 
-        if (clientRegistry instanceof ClientRegistryImpl) {
+        expiryScheduler.stop();
+        if (clientRegistry instanceof ReplicatedClientRegistry) {
+            ((ReplicatedClientRegistry) clientRegistry).destroy();
+        }
+        ClientRegistry registry = getNodeRegistry();
+        if (registry instanceof ClientRegistryImpl) {
             try {
-                ((ClientRegistryImpl) clientRegistry).stop();
+                ((ClientRegistryImpl) registry).stop();
             } catch (final InterruptedException e) {
                 LOG.info("LW-M2M server started");
             }
+        } else if (registry instanceof JournalClientRegistry) {
+            try {
+                ((JournalClientRegistry) registry).destroy();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -0,0 +1,94 @@
+package leshan.server.mqtt.impl;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mNodeVisitor;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.codec.InvalidValueException;
+
+/**
+ * The content of a notification, decoded on first access, as received by a
+ * {@link LazyObservationListener}.
+ * <p>
+ * A lazy listener which never looks at the content, or forwards the raw
+ * payload, does not pay for the decoding. If the payload turns out to be invalid, the
+ * access throws an {@link IllegalArgumentException}.
+ * </p>
+ */
+public final class LazyLwM2mNode implements LwM2mNode {
+
+    private final byte[] payload;
+    private final LwM2mPath path;
+    private volatile LwM2mNode node;
+
+    public LazyLwM2mNode(byte[] payload, LwM2mPath path) {
+        this.payload = payload;
+        this.path = path;
+    }
+
+    /**
+     * Returns the payload as received
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public LwM2mPath getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the decoded node
+     *
+     * @throws InvalidValueException if the payload is not valid for the path
+     */
+    public LwM2mNode getNode() throws InvalidValueException {
+        LwM2mNode decoded = node;
+        if (decoded == null) {
+            // decoding twice in a race is harmless
+            decoded = NotificationDecoder.decode(payload, path);
+            node = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns the decoded node of a lazy node, any other node as is. A listener
+     * which checks the concrete type of the node, e.g. LwM2mResource, unwraps
+     * it first.
+     *
+     * @throws InvalidValueException if the payload is not valid for the path
+     */
+    public static LwM2mNode unwrap(LwM2mNode node) throws InvalidValueException {
+        return node instanceof LazyLwM2mNode ? ((LazyLwM2mNode) node).getNode() : node;
+    }
+
+    public boolean isDecoded() {
+        return node != null;
+    }
+
+    @Override
+    public int getId() {
+        if (path.isResource()) {
+            return path.getResourceId();
+        }
+        return decoded().getId();
+    }
+
+    @Override
+    public void accept(LwM2mNodeVisitor visitor) {
+        decoded().accept(visitor);
+    }
+
+    private LwM2mNode decoded() {
+        try {
+            return getNode();
+        } catch (InvalidValueException e) {
+            throw new IllegalArgumentException(String.format("[%s] ([%s])", e.getMessage(), e.getPath()), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LazyLwM2mNode [path=%s, decoded=%s]", path, isDecoded());
+    }
+}
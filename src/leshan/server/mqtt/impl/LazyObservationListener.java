@@ -0,0 +1,13 @@
+package leshan.server.mqtt.impl;
+
+import leshan.server.observation.ObservationListener;
+
+/**
+ * An {@link ObservationListener} which receives the content of the notifications as a {@link LazyLwM2mNode}, decoded
+ * only once the listener accesses it, e.g. to skip the decoding of the values it filters out.
+ * <p>
+ * The other listeners receive the decoded node, e.g. a {@link leshan.core.node.LwM2mResource}.
+ * </p>
+ */
+public interface LazyObservationListener extends ObservationListener {
+}
@@ -214,8 +214,13 @@ public class LwM2mResponseBuilder<T extends ClientResponse> implements LwM2mRequ
             // observe request succeed so we can add and observation to registry
             final MQTTObservation observation = new MQTTObservation(mqttRequest, request.getClient(),
                         request.getPath());
-            messageObserver.addRequest(mqttRequest.getMessageID(), observation);
-            observationRegistry.addObservation(observation);
+            if (observationRegistry instanceof MQTTObservationRegistry) {
+                // the registry keeps the correlation in step with its indexes
+                observationRegistry.addObservation(observation);
+            } else {
+                messageObserver.addRequest(mqttRequest.getMessageID(), observation);
+                observationRegistry.addObservation(observation);
+            }
             break;
         case NOT_FOUND:
         case METHOD_NOT_ALLOWED:
@@ -1,7 +1,7 @@
 package leshan.server.mqtt.impl;
 
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -81,9 +81,9 @@ public class MQTTLwM2mRequestSender implements LwM2mRequestSender {
                 return lwm2mResponseBuilder.getResponse();
             }
         };
-        messageObserver.addRequest(mqttRequest.getMessageID(), syncMessageObserver);
+        messageObserver.addRequest(mqttRequest.getMessageID(), syncMessageObserver, timeoutMillis);
         mqttRequest.setMqttClient(mqttClient);
-        mqttClient.publish(mqttRequest.getTopic(), mqttRequest.getMessageAsString());
+        mqttClient.publish(mqttRequest);
         // Wait for response, then return it
         return syncMessageObserver.waitForResponse();
     }
@@ -91,6 +91,92 @@ public class MQTTLwM2mRequestSender implements LwM2mRequestSender {
     @Override
     public <T extends ClientResponse> void send(final LwM2mRequest<T> request, final ResponseConsumer<T> responseCallback,
             final ExceptionConsumer errorCallback) {
+        Validate.notNull(responseCallback);
+        Validate.notNull(errorCallback);
+
+        // Create the MQTT request from LwM2m request
+        final MQTTRequestBuilder MQTTRequestBuilder = new MQTTRequestBuilder(this.endpointID,
+        		this.applicationID);
+        request.accept(MQTTRequestBuilder);
+        final Request mqttRequest = MQTTRequestBuilder.getRequest();
+
+        // Send MQTT request asynchronously, the callbacks are invoked from the
+        // thread that dispatches the response, no caller thread is parked
+        final AsyncRequestObserver<T> asyncMessageObserver = new AsyncRequestObserver<T>(mqttRequest,
+        		messageObserver, responseCallback, errorCallback) {
+            @Override
+            public T buildResponse(final Response mqttResponse) {
+                // Build LwM2m response
+                final LwM2mResponseBuilder<T> lwm2mResponseBuilder = new LwM2mResponseBuilder<T>(mqttRequest, mqttResponse,
+                        observationRegistry);
+                lwm2mResponseBuilder.setMessageObserver(messageObserver);
+                request.accept(lwm2mResponseBuilder);
+                return lwm2mResponseBuilder.getResponse();
+            }
+        };
+        messageObserver.addRequest(mqttRequest.getMessageID(), asyncMessageObserver, timeoutMillis);
+        mqttRequest.setMqttClient(mqttClient);
+        mqttClient.publish(mqttRequest);
+    }
+
+    /**
+     * Request observer that hands the LwM2m response (or the failure) over to the given consumers.
+     * <p>
+     * The message receiver removes the observer before dispatching the response or the timeout, so an
+     * observe request can replace it by its observation. The observer completes at most once.
+     * </p>
+     */
+    private abstract class AsyncRequestObserver<T extends ClientResponse> extends AbstractRequestObserver {
+
+        protected final AtomicBoolean completed = new AtomicBoolean(false);
+        protected final MqttV3MessageReceiver messageObserver;
+        protected final ResponseConsumer<T> responseCallback;
+        protected final ExceptionConsumer errorCallback;
+
+        public AsyncRequestObserver(final Request mqttRequest, MqttV3MessageReceiver messageObserver,
+                final ResponseConsumer<T> responseCallback, final ExceptionConsumer errorCallback) {
+            super(mqttRequest);
+            this.messageObserver = messageObserver;
+            this.responseCallback = responseCallback;
+            this.errorCallback = errorCallback;
+        }
+
+        public abstract T buildResponse(Response mqttResponse);
+
+        @Override
+        public void onResponse(final Response mqttResponse) {
+            LOG.debug("Received response: " + mqttResponse);
+            complete(mqttResponse);
+        }
+
+        @Override
+        public void onError(final Response mqttResponse) {
+            complete(mqttResponse);
+        }
+
+        @Override
+        public void onTimeout() {
+            if (completed.compareAndSet(false, true)) {
+                errorCallback.accept(new TimeoutException("Request Timed Out: " + mqttRequest + " (timeout)"));
+            }
+        }
+
+        private void complete(final Response mqttResponse) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            final T lwM2mResponseT;
+            try {
+                lwM2mResponseT = buildResponse(mqttResponse);
+            } catch (final RuntimeException e) {
+                errorCallback.accept(e);
+                return;
+            }
+            if (lwM2mResponseT != null) {
+                responseCallback.accept(lwM2mResponseT);
+            }
+        }
     }
 
    
@@ -141,10 +227,20 @@ public class MQTTLwM2mRequestSender implements LwM2mRequestSender {
             }
         }
 
+        @Override
+        public void onTimeout() {
+            mqttTimeout.set(true);
+            latch.countDown();
+        }
+
+        /*
+         * The deadline is owned by the timer of the message receiver, which
+         * releases the latch through onTimeout()
+         */
         public T waitForResponse() {
             try {
-                final boolean latchTimeout = latch.await(timeout, TimeUnit.MILLISECONDS);
-                if (!latchTimeout || mqttTimeout.get()) {
+                latch.await();
+                if (mqttTimeout.get()) {
                     if (exception.get() != null) {
                         throw exception.get();
                     } else {
@@ -1,15 +1,12 @@
 package leshan.server.mqtt.impl;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import leshan.ResponseCode;
-import leshan.core.node.LwM2mNode;
 import leshan.core.node.LwM2mPath;
 import leshan.core.node.codec.InvalidValueException;
-import leshan.core.node.codec.LwM2mNodeDecoder;
-import leshan.core.request.ContentFormat;
-import leshan.core.response.ValueResponse;
 import leshan.server.client.Client;
 import leshan.server.observation.Observation;
 import leshan.server.observation.ObservationListener;
@@ -28,6 +25,8 @@ public final class MQTTObservation extends AbstractRequestObserver implements Ob
     private final List<ObservationListener> listeners = new CopyOnWriteArrayList<>();
     private final Client client;
     private final LwM2mPath path;
+    /* the notifications of an observation arrive one after the other */
+    private volatile LazyLwM2mNode lastContent;
 
     public MQTTObservation(Request mqttRequest, Client client, LwM2mPath path) {
     	super(mqttRequest);
@@ -51,6 +50,14 @@ public final class MQTTObservation extends AbstractRequestObserver implements Ob
         this.listeners.addAll(listeners);
     }
 
+    /**
+     * Returns the message-id of the observe request, the notifications are
+     * correlated by
+     */
+    public long getMessageID() {
+        return mqttRequest.getMessageID();
+    }
+
     @Override
     public void cancel() {
         mqttRequest.cancel();
@@ -82,24 +89,52 @@ public final class MQTTObservation extends AbstractRequestObserver implements Ob
         }
     }
 
+    /**
+     * Notifies the listeners of a new value, raw listeners get the payload as
+     * is and lazy listeners a content decoded once they access it. The content
+     * is decoded once for all the listeners, a notification repeating the
+     * previous value is not decoded again.
+     */
     @Override
 	public void onResponse(Response mqttResponse) {
-        if (fromMqttCode(mqttResponse.getCode()) == ResponseCode.CHANGED) {
+        if (mqttResponse.getCodeAsInt() != com.ibm.mqttv3.binding.ResponseCode.CHANGED.code || listeners.isEmpty()) {
+            return;
+        }
+        byte[] payload = mqttResponse.getPayload();
+        LazyLwM2mNode content = null;
+        for (ObservationListener listener : listeners) {
             try {
-                LwM2mNode content = LwM2mNodeDecoder.decode(mqttResponse.getPayload(),
-                		ContentFormat.fromCode(1541), path);
-                ValueResponse response = new ValueResponse(ResponseCode.CHANGED, content);
-
-                for (ObservationListener listener : listeners) {
-                    listener.newValue(this, response.getContent());
+                if (listener instanceof RawObservationListener) {
+                    ((RawObservationListener) listener).newRawValue(this, payload,
+                            NotificationDecoder.CONTENT_FORMAT);
+                } else {
+                    if (content == null) {
+                        content = content(payload);
+                    }
+                    listener.newValue(this, listener instanceof LazyObservationListener ? content
+                            : content.getNode());
                 }
             } catch (InvalidValueException e) {
-                String msg = String.format("[%s] ([%s])", e.getMessage(), e.getPath().toString());
-                LOG.debug(msg);
+                LOG.debug(String.format("[%s] ([%s])", e.getMessage(), e.getPath()));
+            } catch (IllegalArgumentException e) {
+                // the content could not be decoded
+                LOG.debug(e.getMessage());
             }
         }
     }
 
+    /*
+     * Returns the content of the previous notification if the payload is the same
+     */
+    private LazyLwM2mNode content(byte[] payload) {
+        LazyLwM2mNode content = lastContent;
+        if (content == null || !Arrays.equals(content.getPayload(), payload)) {
+            content = new LazyLwM2mNode(payload, path);
+            lastContent = content;
+        }
+        return content;
+    }
+
     @Override
     public void onCancel() {
         for (ObservationListener listener : listeners) {
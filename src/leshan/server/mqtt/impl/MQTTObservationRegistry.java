@@ -0,0 +1,238 @@
+package leshan.server.mqtt.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.server.client.Client;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationListener;
+import leshan.server.observation.ObservationRegistry;
+import leshan.server.observation.ObservationRegistryListener;
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+
+/**
+ * An {@link ObservationRegistry} indexing the {@link MQTTObservation}s by
+ * endpoint, by path within the endpoint and by the message-id the
+ * notifications are correlated with.
+ * <p>
+ * The registry owns the registration of an observation with the
+ * {@link MqttV3MessageReceiver}, so the correlation of the notifications is
+ * added and removed together with the indexes. Cancelling the observations
+ * of a client takes its map of observations off the endpoint index, without
+ * looking at the observations of the other clients.
+ * </p>
+ */
+public class MQTTObservationRegistry implements ObservationRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MQTTObservationRegistry.class);
+
+    /* endpoint -> path -> observation, the path map of an endpoint is the lock of its updates */
+    private final ConcurrentHashMap<String, Map<String, MQTTObservation>> byEndpoint = new ConcurrentHashMap<>();
+    /* message-id -> observation */
+    private final ConcurrentHashMap<Long, MQTTObservation> byMessageId = new ConcurrentHashMap<>();
+
+    private final List<ObservationRegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile MqttV3MessageReceiver messageReceiver;
+
+    /* forwards the notifications of all the observations to the registry listeners */
+    /* decodes the content only if there are listeners, they get the decoded node */
+    private final ObservationListener valueForwarder = new LazyObservationListener() {
+        @Override
+        public void newValue(Observation observation, LwM2mNode value) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            LwM2mNode content;
+            try {
+                content = LazyLwM2mNode.unwrap(value);
+            } catch (InvalidValueException e) {
+                LOG.debug(String.format("[%s] ([%s])", e.getMessage(), e.getPath()));
+                return;
+            }
+            for (ObservationRegistryListener listener : listeners) {
+                listener.newValue(observation, content);
+            }
+        }
+
+        @Override
+        public void cancelled(Observation observation) {
+        }
+    };
+
+    /**
+     * Sets the receiver the notifications are correlated by
+     */
+    public void setMessageReceiver(MqttV3MessageReceiver messageReceiver) {
+        this.messageReceiver = messageReceiver;
+    }
+
+    /**
+     * Adds the observation and registers it with the message receiver, an
+     * observation of the same path of the client is replaced.
+     *
+     * @throws IllegalStateException if the correlation table of the receiver
+     *         is full, the registry is left as it was
+     */
+    @Override
+    public void addObservation(Observation observation) {
+        Validate.isTrue(observation instanceof MQTTObservation, "MQTTObservation expected");
+        MQTTObservation mqttObservation = (MQTTObservation) observation;
+        String endpoint = observation.getClient().getEndpoint();
+        String path = observation.getPath().toString();
+
+        MQTTObservation replaced;
+        for (;;) {
+            Map<String, MQTTObservation> observations = byEndpoint.get(endpoint);
+            if (observations == null) {
+                Map<String, MQTTObservation> created = new ConcurrentHashMap<>();
+                observations = byEndpoint.putIfAbsent(endpoint, created);
+                if (observations == null) {
+                    observations = created;
+                }
+            }
+            synchronized (observations) {
+                // the map may have been taken off by cancelObservations in the meantime
+                if (byEndpoint.get(endpoint) != observations) {
+                    continue;
+                }
+                // reserves the correlation first, a full table throws before the indexes are changed
+                MqttV3MessageReceiver receiver = messageReceiver;
+                if (receiver != null) {
+                    receiver.addRequest(mqttObservation.getMessageID(), mqttObservation);
+                }
+                replaced = observations.put(path, mqttObservation);
+                byMessageId.put(mqttObservation.getMessageID(), mqttObservation);
+                if (replaced != null) {
+                    unlink(replaced);
+                }
+            }
+            break;
+        }
+        observation.addListener(valueForwarder);
+
+        if (replaced != null) {
+            cancel(replaced);
+        }
+        for (ObservationRegistryListener listener : listeners) {
+            listener.newObservation(observation);
+        }
+    }
+
+    /**
+     * Cancels all the observations of the client, e.g. when it deregisters
+     *
+     * @return the number of cancelled observations
+     */
+    @Override
+    public int cancelObservations(Client client) {
+        Map<String, MQTTObservation> observations = byEndpoint.remove(client.getEndpoint());
+        if (observations == null) {
+            return 0;
+        }
+        List<MQTTObservation> cancelled;
+        synchronized (observations) {
+            cancelled = new ArrayList<>(observations.values());
+            for (MQTTObservation observation : cancelled) {
+                unlink(observation);
+            }
+        }
+        for (MQTTObservation observation : cancelled) {
+            cancel(observation);
+        }
+        LOG.debug("Cancelled {} observations of {}", cancelled.size(), client.getEndpoint());
+        return cancelled.size();
+    }
+
+    @Override
+    public void cancelObservation(Client client, String resourcepath) {
+        Map<String, MQTTObservation> observations = byEndpoint.get(client.getEndpoint());
+        if (observations == null) {
+            return;
+        }
+        MQTTObservation observation;
+        synchronized (observations) {
+            observation = observations.remove(resourcepath);
+            if (observation != null) {
+                unlink(observation);
+            }
+        }
+        if (observation != null) {
+            cancel(observation);
+        }
+    }
+
+    /*
+     * Removes the observation from the correlation, called with the lock of
+     * its endpoint held
+     */
+    private void unlink(MQTTObservation observation) {
+        byMessageId.remove(observation.getMessageID(), observation);
+    }
+
+    private void cancel(MQTTObservation observation) {
+        observation.removeListener(valueForwarder);
+        try {
+            // sends the cancellation to the client and notifies the observation listeners
+            observation.cancel();
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to cancel " + observation, e);
+        }
+        MqttV3MessageReceiver receiver = messageReceiver;
+        if (receiver != null) {
+            receiver.removeRequest(observation.getMessageID(), observation);
+        }
+        for (ObservationRegistryListener listener : listeners) {
+            listener.cancelled(observation);
+        }
+    }
+
+    /**
+     * Returns the observation the notifications with the given message-id belong to
+     */
+    public MQTTObservation getObservation(long messageID) {
+        return byMessageId.get(messageID);
+    }
+
+    public MQTTObservation getObservation(String endpoint, String path) {
+        Map<String, MQTTObservation> observations = byEndpoint.get(endpoint);
+        return observations == null ? null : observations.get(path);
+    }
+
+    public Collection<MQTTObservation> getObservations(String endpoint) {
+        Map<String, MQTTObservation> observations = byEndpoint.get(endpoint);
+        if (observations == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(observations.values());
+    }
+
+    /**
+     * Returns the number of observations of all the clients
+     */
+    public int size() {
+        return byMessageId.size();
+    }
+
+    @Override
+    public void addListener(ObservationRegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(ObservationRegistryListener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -114,6 +114,7 @@ public class MQTTRequestBuilder implements LwM2mRequestVisitor {
         mqttRequest.setApplicationID(client.getApplicationID());
         mqttRequest.setEndPointId(client.getEndpoint());
         mqttRequest.setOrganizationID(client.getOrganizationID());
+        mqttRequest.setFraming(client.getFraming());
 
         // root path
         if (client.getRootPath() != null) {
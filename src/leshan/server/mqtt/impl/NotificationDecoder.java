@@ -0,0 +1,27 @@
+package leshan.server.mqtt.impl;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.core.node.codec.LwM2mNodeDecoder;
+import leshan.core.request.ContentFormat;
+
+/**
+ * Decodes the payload of notifications.
+ * <p>
+ * A notification sent at the end of pmax often repeats the previous value, the {@link MQTTObservation} keeps the
+ * content of its last notification and reuses it instead of decoding the same bytes again.
+ * </p>
+ */
+public final class NotificationDecoder {
+
+    /** Notifications are sent in the LWM2M text format */
+    public static final ContentFormat CONTENT_FORMAT = ContentFormat.fromCode(1541);
+
+    private NotificationDecoder() {
+    }
+
+    public static LwM2mNode decode(byte[] payload, LwM2mPath path) throws InvalidValueException {
+        return LwM2mNodeDecoder.decode(payload, CONTENT_FORMAT, path);
+    }
+}
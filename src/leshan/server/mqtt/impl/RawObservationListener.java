@@ -0,0 +1,18 @@
+package leshan.server.mqtt.impl;
+
+import leshan.core.request.ContentFormat;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationListener;
+
+/**
+ * An {@link ObservationListener} which receives the payload of the notifications
+ * as sent by the client, e.g. to forward it, instead of the decoded content.
+ * <p>
+ * {@link #newValue(Observation, leshan.core.node.LwM2mNode)} is not called for
+ * a raw listener.
+ * </p>
+ */
+public interface RawObservationListener extends ObservationListener {
+
+    void newRawValue(Observation observation, byte[] payload, ContentFormat contentFormat);
+}
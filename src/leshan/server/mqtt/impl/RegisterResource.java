@@ -1,6 +1,10 @@
 package leshan.server.mqtt.impl;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import leshan.LinkObject;
 import leshan.server.client.BindingMode;
@@ -8,14 +12,18 @@ import leshan.server.client.Client;
 import leshan.server.client.ClientRegistrationException;
 import leshan.server.client.ClientRegistry;
 import leshan.server.client.ClientUpdate;
+import leshan.server.client.ObjectLinksListener;
 import leshan.util.RandomStringUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ibm.mqttv3.binding.Framing;
 import com.ibm.mqttv3.binding.MQTTExchange;
 import com.ibm.mqttv3.binding.MQTTResource;
+import com.ibm.mqttv3.binding.ObjectListHash;
 import com.ibm.mqttv3.binding.Request;
+import com.ibm.mqttv3.binding.Response;
 import com.ibm.mqttv3.binding.Resource;
 import com.ibm.mqttv3.binding.ResponseCode;
 
@@ -25,6 +33,15 @@ import com.ibm.mqttv3.binding.ResponseCode;
  * This resource is the entry point of the Resource Directory ("/rd"). Each new client is added to the
  * {@link ClientRegistry}.
  * </p>
+ * <p>
+ * The object list of an update is only parsed when its hash differs from the one of the registered list, a client
+ * may even leave the list out and send its hash alone. The {@link ObjectLinksListener}s are told which links a
+ * changed list added and removed.
+ * </p>
+ * <p>
+ * With a {@link RegistrationAdmission} the registrations of an organization beyond its rate are answered with
+ * SERVICE_UNAVAILABLE and a retry-after hint before anything of the request is parsed.
+ * </p>
  */
 public class RegisterResource extends MQTTResource {
 
@@ -44,23 +61,59 @@ public class RegisterResource extends MQTTResource {
 
     private final ClientRegistry clientRegistry;
 
+    private final List<ObjectLinksListener> objectLinksListeners = new CopyOnWriteArrayList<>();
+
+    /* null admits every registration */
+    private volatile RegistrationAdmission admission;
+
     public RegisterResource(ClientRegistry clientRegistry) {
         super(RESOURCE_NAME);
 
         this.clientRegistry = clientRegistry;
     }
 
+    public void addObjectLinksListener(ObjectLinksListener listener) {
+        objectLinksListeners.add(listener);
+    }
+
+    public void removeObjectLinksListener(ObjectLinksListener listener) {
+        objectLinksListeners.remove(listener);
+    }
+
+    /**
+     * Limits the rate of the registrations per organization, <code>null</code> admits every registration
+     */
+    public void setAdmission(RegistrationAdmission admission) {
+        this.admission = admission;
+    }
+
+    public RegistrationAdmission getAdmission() {
+        return admission;
+    }
+
     @Override
     public void handlePOST(MQTTExchange exchange) {
         Request request = exchange.getRequest();
 
         LOG.debug("POST received : {}", request);
 
+        RegistrationAdmission admission = this.admission;
+        if (admission != null) {
+            int retryAfter = admission.admit(request.getOrganizationID());
+            if (retryAfter > 0) {
+                LOG.debug("Registration rate of organization {} exceeded, retry after {}s",
+                        request.getOrganizationID(), retryAfter);
+                exchange.respond(Response.serviceUnavailable(retryAfter));
+                return;
+            }
+        }
+
         String endpoint = null;
         Long lifetime = null;
         String smsNumber = null;
         String lwVersion = null;
         BindingMode binding = null;
+        Framing framing = Framing.TEXT;
         LinkObject[] objectLinks = null;
         try {
 
@@ -75,6 +128,8 @@ public class RegisterResource extends MQTTResource {
                     lwVersion = param.substring(6);
                 } else if (param.startsWith(QUERY_PARAM_BINDING_MODE)) {
                     binding = BindingMode.valueOf(param.substring(2));
+                } else if (param.startsWith(Framing.QUERY_PARAM_FRAMING)) {
+                    framing = Framing.fromParameter(param.substring(3));
                 }
             }
 
@@ -84,15 +139,19 @@ public class RegisterResource extends MQTTResource {
                 // register
                 String registrationId = RegisterResource.createRegistrationId();
                 byte[] objects = getObjects(request);
+                String objectsHash = null;
                 if (objects != null) {
                     objectLinks = LinkObject.parse(objects);
+                    objectsHash = ObjectListHash.of(objects);
                 }
 
                 Client client = new Client(registrationId, endpoint, null, 0,
                         lwVersion, lifetime, smsNumber, binding, objectLinks, null);
 
+                client.setObjectLinksHash(objectsHash);
                 client.setApplicationID(request.getRequestorApplicationID());
                 client.setOrganizationID(request.getOrganizationID());
+                client.setFraming(framing);
                 clientRegistry.registerClient(client);
                 LOG.debug("New registered client: {}", client);
 
@@ -100,6 +159,8 @@ public class RegisterResource extends MQTTResource {
             }
         } catch (NumberFormatException e) {
             exchange.respond(ResponseCode.BAD_REQUEST, "Lifetime parameter must be a valid number");
+        } catch (IllegalArgumentException e) {
+            exchange.respond(ResponseCode.BAD_REQUEST, e.getMessage());
         } catch (ClientRegistrationException e) {
             LOG.debug("Registration failed for client " + endpoint, e);
             exchange.respond(ResponseCode.BAD_REQUEST);
@@ -155,7 +216,8 @@ public class RegisterResource extends MQTTResource {
         Long lifetime = null;
         String smsNumber = null;
         BindingMode binding = null;
-        LinkObject[] objectLinks = null;
+        Framing framing = null;
+        String objectsHash = null;
 
         for (String param : getParameters(request)) {
             if (param.startsWith(QUERY_PARAM_LIFETIME)) {
@@ -164,24 +226,51 @@ public class RegisterResource extends MQTTResource {
                 smsNumber = param.substring(4);
             } else if (param.startsWith(QUERY_PARAM_BINDING_MODE)) {
                 binding = BindingMode.valueOf(param.substring(2));
+            } else if (param.startsWith(Framing.QUERY_PARAM_FRAMING)) {
+                framing = Framing.fromParameter(param.substring(3));
+            } else if (param.startsWith(ObjectListHash.QUERY_PARAM_OBJECTS_HASH)) {
+                objectsHash = param.substring(3);
             }
         }
 
         byte[] objects = getObjects(request);
-        if (objects != null) {
-            objectLinks = LinkObject.parse(objects);
+        if (objects != null && objectsHash == null) {
+            // hashing is much cheaper than parsing
+            objectsHash = ObjectListHash.of(objects);
+        }
+
+        // the updates of a client are handled one after the other on its lane
+        Client current = clientRegistry.get(request.getRequestorEndpointID());
+        if (current != null && !registrationId.equals(current.getRegistrationId())) {
+            current = null;
         }
-       
-        ClientUpdate client = new ClientUpdate(registrationId, null, 0, lifetime,
-                smsNumber, binding, objectLinks);
+        LinkObject[] previous = current == null ? null : current.getObjectLinks();
+
+        // the links are left alone unless they changed, most updates only refresh the lifetime
+        LinkObject[] objectLinks = null;
+        if (objectsHash != null && !objectsHash.equals(current == null ? null : current.getObjectLinksHash())) {
+            if (objects != null) {
+                objectLinks = LinkObject.parse(objects);
+            } else if (current != null) {
+                // the client believes we hold a list we do not know, it sends the list again on an error
+                LOG.debug("Object list of {} changed but was not sent", current.getEndpoint());
+                exchange.respond(ResponseCode.BAD_REQUEST);
+                return;
+            }
+        }
+        ClientUpdate client = new ClientUpdate(registrationId, null, 0, lifetime, smsNumber, binding,
+                objectLinks, objectLinks == null ? null : objectsHash, framing);
 
         try {
             Client c = clientRegistry.updateClient(client);
             if (c == null) {
                 exchange.respond(ResponseCode.NOT_FOUND);
-            } else {
-                exchange.respond(ResponseCode.CHANGED);
+                return;
             }
+            if (objectLinks != null) {
+                objectLinksChanged(c, previous, objectLinks);
+            }
+            exchange.respond(ResponseCode.CHANGED);
         } catch (ClientRegistrationException e) {
             LOG.debug("Registration update failed: " + client, e);
             exchange.respond(ResponseCode.BAD_REQUEST);
@@ -189,6 +278,45 @@ public class RegisterResource extends MQTTResource {
 
     }
 
+    /*
+     * Tells the listeners which links were added and which were removed
+     */
+    private void objectLinksChanged(Client c, LinkObject[] previous, LinkObject[] objectLinks) {
+        if (objectLinksListeners.isEmpty()) {
+            return;
+        }
+        LinkObject[] added = difference(objectLinks, previous);
+        LinkObject[] removed = difference(previous, objectLinks);
+        if (added.length == 0 && removed.length == 0) {
+            return;
+        }
+        for (ObjectLinksListener listener : objectLinksListeners) {
+            listener.objectLinksChanged(c, added, removed);
+        }
+    }
+
+    /*
+     * Returns the links of the first list whose url is not in the second one
+     */
+    private static LinkObject[] difference(LinkObject[] links, LinkObject[] from) {
+        if (links == null) {
+            return new LinkObject[0];
+        }
+        Set<String> urls = new HashSet<>();
+        if (from != null) {
+            for (LinkObject link : from) {
+                urls.add(link.getUrl());
+            }
+        }
+        List<LinkObject> difference = new ArrayList<>();
+        for (LinkObject link : links) {
+            if (!urls.contains(link.getUrl())) {
+                difference.add(link);
+            }
+        }
+        return difference.toArray(new LinkObject[difference.size()]);
+    }
+
     @Override
     public void handleDELETE(MQTTExchange exchange) {
         LOG.debug("DELETE received : {}", exchange.getRequest());
@@ -0,0 +1,133 @@
+package leshan.server.mqtt.impl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits the registrations of each organization through a token bucket of its own.
+ * <p>
+ * The bucket of an organization refills at the given rate up to the burst, a registration takes one token. When the
+ * devices of one organization reconnect all at once they drain their own bucket only, the other organizations keep
+ * being admitted. A rejected device is told when to come back: each rejected device of an organization is given a
+ * later time than the one before, so their retries are spread over the time the bucket needs to admit them instead
+ * of all coming back at the same moment.
+ * </p>
+ */
+public class RegistrationAdmission {
+
+    /* a device is never told to wait longer than this */
+    private static final int MAX_RETRY_AFTER_SECONDS = 600;
+
+    private final double ratePerNano;
+    private final double ratePerSecond;
+    private final double burst;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param ratePerSecond the registrations admitted per second and organization
+     * @param burst the registrations admitted at once, after a quiet period
+     */
+    public RegistrationAdmission(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be greater than 0: " + ratePerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+    }
+
+    /**
+     * Takes a token of the organization
+     *
+     * @return 0 if the registration is admitted, otherwise the seconds the device should wait before retrying
+     */
+    public int admit(String organizationID) {
+        String key = key(organizationID);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Bucket created = new Bucket();
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        int retryAfter = bucket.take(System.nanoTime());
+        if (retryAfter == 0) {
+            admitted.incrementAndGet();
+            bucket.admitted.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+            bucket.rejected.incrementAndGet();
+        }
+        return retryAfter;
+    }
+
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getAdmittedCount(String organizationID) {
+        Bucket bucket = buckets.get(key(organizationID));
+        return bucket == null ? 0 : bucket.admitted.get();
+    }
+
+    public long getRejectedCount(String organizationID) {
+        Bucket bucket = buckets.get(key(organizationID));
+        return bucket == null ? 0 : bucket.rejected.get();
+    }
+
+    /*
+     * The devices without organization share the bucket of the empty one
+     */
+    private static String key(String organizationID) {
+        return organizationID == null ? "" : organizationID;
+    }
+
+    /**
+     * Returns the organizations which registered devices so far
+     */
+    public Set<String> getOrganizations() {
+        return Collections.unmodifiableSet(buckets.keySet());
+    }
+
+    private final class Bucket {
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        /* guarded by this */
+        private double tokens = burst;
+        /* devices told to retry which the refilled tokens have not caught up with yet */
+        private double waiting;
+        private long refilled = System.nanoTime();
+
+        synchronized int take(long now) {
+            double added = (now - refilled) * ratePerNano;
+            refilled = now;
+            tokens = Math.min(burst, tokens + added);
+            waiting = Math.max(0, waiting - added);
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            // told to come back when the tokens refilled for the devices rejected before are there
+            waiting += 1;
+            double seconds = (waiting - tokens) / ratePerSecond;
+            return (int) Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, Math.ceil(seconds)));
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package leshan.server.mqtt.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.server.client.Client;
+import leshan.server.client.ClientCodec;
+import leshan.server.client.ClientRegistrationException;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.ClientUpdate;
+import leshan.util.Validate;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.mqttv3.binding.MQTTWrapper;
+import com.ibm.mqttv3.binding.MqttTransportFactory;
+import com.ibm.mqttv3.binding.PahoTransport;
+
+/**
+ * A {@link ClientRegistry} shared by the nodes of a cluster of servers.
+ * <p>
+ * Each node keeps all the clients in its own registry. The registrations, updates and de-registrations a node handles
+ * are published as retained messages on <code>LWM/C/{server endpoint}/{server application}/{client endpoint}</code>,
+ * so the other nodes apply them to their registry and a node which joins later receives the state of every client
+ * when it subscribes. A de-registration leaves a tombstone with the registration id behind.
+ * </p>
+ * <p>
+ * The nodes converge whatever order the messages of different nodes arrive in: the newest registration of an
+ * endpoint wins and a de-registration only removes the registration it names. Each node expires its clients on its
+ * own.
+ * </p>
+ */
+public class ReplicatedClientRegistry implements ClientRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicatedClientRegistry.class);
+
+    public static final String TOPIC_STARTER = "LWM/C";
+
+    private static final byte REGISTERED = 1;
+    private static final byte UPDATED = 2;
+    private static final byte DEREGISTERED = 3;
+
+    /* a lost event would leave the nodes apart until the next update of the client */
+    private static final int QOS = 1;
+
+    /* bounds the registrations remembered if the events of this node stop coming back */
+    private static final int MAX_DEREGISTERED = 10000;
+
+    private final ClientRegistry delegate;
+    private final String nodeID;
+    private final String topicPrefix;
+
+    /* a connection of its own, so the events do not wait behind the requests of the devices */
+    private final MQTTWrapper mqttClient;
+
+    private final AtomicLong appliedEvents = new AtomicLong();
+
+    /*
+     * The registrations this node removed until its own de-registration event comes back, its earlier events of
+     * the registration may still be on their way and must not register the client again
+     */
+    private final Set<String> deregistered = Collections.newSetFromMap(Collections
+            .synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_DEREGISTERED;
+                }
+            }));
+
+    /**
+     * @param delegate the registry of this node
+     * @param brokerAddress the broker the nodes share
+     * @param endpointID the endpoint of the server, the same on every node
+     * @param applicationID the application of the server, the same on every node
+     * @param nodeID the identifier of this node, unique in the cluster
+     */
+    public ReplicatedClientRegistry(ClientRegistry delegate, InetSocketAddress brokerAddress, String endpointID,
+            String applicationID, String nodeID) {
+        this(delegate, PahoTransport.factory(brokerAddress), endpointID, applicationID, nodeID);
+    }
+
+    /**
+     * @param delegate the registry of this node
+     * @param transports creates the connection to the broker the nodes share
+     * @param endpointID the endpoint of the server, the same on every node
+     * @param applicationID the application of the server, the same on every node
+     * @param nodeID the identifier of this node, unique in the cluster
+     */
+    public ReplicatedClientRegistry(ClientRegistry delegate, MqttTransportFactory transports, String endpointID,
+            String applicationID, String nodeID) {
+        Validate.notNull(delegate);
+        Validate.notNull(nodeID);
+        this.delegate = delegate;
+        this.nodeID = nodeID;
+        this.topicPrefix = TOPIC_STARTER + "/" + endpointID + "/" + applicationID + "/";
+        String clientID = endpointID + "-" + nodeID + "-registry";
+        this.mqttClient = new MQTTWrapper(transports.create(clientID), clientID);
+    }
+
+    /**
+     * Returns the registry of this node
+     */
+    public ClientRegistry getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Connects to the broker and subscribes to the events of the other nodes, the broker delivers the state of all
+     * the clients right away.
+     */
+    public void start() {
+        mqttClient.start();
+        mqttClient.setCallBack(new MqttCallback() {
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                apply(topic, message.getPayload());
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                mqttClient.deliveryComplete(token);
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                LOG.error("Connection of the client registry lost, registrations are not replicated anymore", cause);
+            }
+        });
+        mqttClient.subscribe(topicPrefix + "+", QOS);
+        LOG.info("Replicating the client registry of node {} on {}+", nodeID, topicPrefix);
+    }
+
+    public void stop() {
+        mqttClient.stop();
+    }
+
+    public void destroy() {
+        mqttClient.destroy();
+    }
+
+    /**
+     * Returns the number of events of the other nodes applied to this node
+     */
+    public long getAppliedEventCount() {
+        return appliedEvents.get();
+    }
+
+    @Override
+    public Client get(String endpoint) {
+        return delegate.get(endpoint);
+    }
+
+    @Override
+    public Collection<Client> allClients() {
+        return delegate.allClients();
+    }
+
+    @Override
+    public void addListener(ClientRegistryListener listener) {
+        delegate.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(ClientRegistryListener listener) {
+        delegate.removeListener(listener);
+    }
+
+    @Override
+    public Client registerClient(Client client) throws ClientRegistrationException {
+        Client previous = delegate.registerClient(client);
+        publish(REGISTERED, client);
+        return previous;
+    }
+
+    @Override
+    public Client updateClient(ClientUpdate update) throws ClientRegistrationException {
+        Client client = delegate.updateClient(update);
+        if (client != null) {
+            publish(UPDATED, client);
+        }
+        return client;
+    }
+
+    @Override
+    public Client deregisterClient(String registrationId) throws ClientRegistrationException {
+        // before the registry changes, an event of this node may come back meanwhile
+        deregistered.add(registrationId);
+        Client client = delegate.deregisterClient(registrationId);
+        if (client != null) {
+            publish(DEREGISTERED, client);
+        } else {
+            deregistered.remove(registrationId);
+        }
+        return client;
+    }
+
+    private void publish(byte type, Client client) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            ClientCodec.writeString(out, nodeID);
+            if (type == DEREGISTERED) {
+                ClientCodec.writeString(out, client.getEndpoint());
+                ClientCodec.writeString(out, client.getRegistrationId());
+            } else {
+                ClientCodec.encode(client, out);
+            }
+            mqttClient.publishRetained(topicPrefix + client.getEndpoint(), bytes.toByteArray(), QOS);
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Applies an event to the registry of this node, called by the Paho thread of the registry connection one
+     * message after the other
+     */
+    private void apply(String topic, byte[] payload) {
+        if (payload.length == 0) {
+            // a cleared retained message
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            String origin = ClientCodec.readString(in);
+
+            if (type == DEREGISTERED) {
+                String endpoint = ClientCodec.readString(in);
+                String registrationId = ClientCodec.readString(in);
+                if (nodeID.equals(origin)) {
+                    // the earlier events of this node came back before it
+                    deregistered.remove(registrationId);
+                }
+                Client local = delegate.get(endpoint);
+                if (local != null && local.getRegistrationId().equals(registrationId)) {
+                    delegate.deregisterClient(registrationId);
+                    appliedEvents.incrementAndGet();
+                }
+                return;
+            }
+            if (type != REGISTERED && type != UPDATED) {
+                LOG.warn("Ignoring unknown registry event {} on {}", type, topic);
+                return;
+            }
+
+            Client client = ClientCodec.decode(in);
+            if (nodeID.equals(origin) && deregistered.contains(client.getRegistrationId())) {
+                // an own event of a registration this node removed since
+                return;
+            }
+            Client local = delegate.get(client.getEndpoint());
+            if (local != null && local.getRegistrationId().equals(client.getRegistrationId())) {
+                if (!nodeID.equals(origin)) {
+                    delegate.updateClient(new ClientUpdate(client.getRegistrationId(), client.getAddress(), client
+                            .getPort(), client.getLifeTimeInSec(), client.getSmsNumber(), client.getBindingMode(),
+                            client.getObjectLinks(), client.getObjectLinksHash(), client.getFraming()));
+                    appliedEvents.incrementAndGet();
+                }
+                return;
+            }
+            if (!client.isAlive() || (local != null && !isNewer(client, local))) {
+                // expired while retained, or an older registration than the one we have
+                return;
+            }
+            delegate.registerClient(client);
+            appliedEvents.incrementAndGet();
+        } catch (IOException | RuntimeException | ClientRegistrationException e) {
+            LOG.error("Unable to apply the registry event on " + topic, e);
+        }
+    }
+
+    /*
+     * The newest registration wins, the registration id breaks a tie so every node picks the same
+     */
+    private static boolean isNewer(Client client, Client than) {
+        int compare = client.getRegistrationDate().compareTo(than.getRegistrationDate());
+        if (compare != 0) {
+            return compare > 0;
+        }
+        return client.getRegistrationId().compareTo(than.getRegistrationId()) > 0;
+    }
+}
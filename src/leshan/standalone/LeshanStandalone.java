@@ -29,11 +29,14 @@
  */
 package leshan.standalone;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Properties;
 
 import leshan.server.LwM2mServer;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.JournalClientRegistry;
 import leshan.standalone.servlet.ClientServlet;
 import leshan.standalone.servlet.EventServlet;
 import leshan.standalone.servlet.ObjectSpecServlet;
@@ -45,6 +48,10 @@ import org.eclipse.jetty.webapp.WebAppContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ibm.mqttv3.binding.MqttV3MessageReceiver;
+import com.ibm.mqttv3.binding.QosPolicy;
+import com.ibm.mqttv3.binding.StripedDispatcher.OverloadPolicy;
+
 public class LeshanStandalone {
 
     private static final Logger LOG = LoggerFactory.getLogger(LeshanStandalone.class);
@@ -81,6 +88,12 @@ public class LeshanStandalone {
 		String endpointID = "10";
 		String applicationID = "leshan-server";
 		InetSocketAddress mqttBrokerAddress = new InetSocketAddress("localhost", 1883);
+		int maxInflight = 0;
+		QosPolicy qosPolicy = new QosPolicy();
+		String clientJournal = null;
+		String nodeID = null;
+		String registrationRate = null;
+		int registrationBurst = 0;
     	try {
 			properties.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("mqtt.properties"));
 			endpointID = properties.getProperty("SERVER_ID");
@@ -88,11 +101,52 @@ public class LeshanStandalone {
 			String hostname = properties.getProperty("MQTT_SERVER");
 			int portNumber = Integer.parseInt(properties.getProperty("MQTT_PORT"));
 			mqttBrokerAddress = new InetSocketAddress(hostname, portNumber);
+			maxInflight = Integer.parseInt(properties.getProperty("MQTT_MAX_INFLIGHT", "0").trim());
+			qosPolicy = QosPolicy.fromProperties(properties);
+			clientJournal = properties.getProperty("CLIENT_REGISTRY_JOURNAL");
+			nodeID = System.getProperty("CLUSTER_NODE_ID", properties.getProperty("CLUSTER_NODE_ID"));
+			if (nodeID != null && nodeID.trim().isEmpty()) {
+				nodeID = null;
+			}
+			
+			// admission of inbound messages, to survive registration storms
+			String capacity = properties.getProperty("INBOUND_LANE_CAPACITY");
+			if (capacity != null) {
+				OverloadPolicy policy = OverloadPolicy.valueOf(
+						properties.getProperty("INBOUND_OVERLOAD_POLICY", "REJECT").trim());
+				if (policy == OverloadPolicy.BLOCK && maxInflight == 0) {
+					LOG.warn("INBOUND_OVERLOAD_POLICY BLOCK needs MQTT_MAX_INFLIGHT > 0, full lanes reject instead");
+				}
+				MqttV3MessageReceiver.configureAdmission(Integer.parseInt(capacity.trim()), policy,
+						Integer.parseInt(properties.getProperty("INBOUND_RETRY_AFTER", "30").trim()));
+			}
+			registrationRate = properties.getProperty("REGISTRATION_RATE_PER_ORG");
+			registrationBurst = Integer.parseInt(properties.getProperty("REGISTRATION_BURST_PER_ORG", "0").trim());
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-    	lwServer = new leshan.server.mqtt.LeshanServer(mqttBrokerAddress, endpointID, applicationID);
+    	// registrations survive a restart if they are journaled
+    	ClientRegistry clientRegistry = null;
+    	if (clientJournal != null && !clientJournal.trim().isEmpty()) {
+    		try {
+    			clientRegistry = new JournalClientRegistry(new File(clientJournal.trim()));
+    		} catch (IOException e) {
+    			LOG.error("Unable to open the client journal " + clientJournal + ", registrations are kept in memory", e);
+    		}
+    	}
+    	leshan.server.mqtt.LeshanServer mqttServer = 
+    			new leshan.server.mqtt.LeshanServer(mqttBrokerAddress, clientRegistry, null, endpointID, applicationID, 
+    					nodeID == null ? null : nodeID.trim());
+    	mqttServer.setMaxInflight(maxInflight);
+    	mqttServer.setQosPolicy(qosPolicy);
+    	if (registrationRate != null && !registrationRate.trim().isEmpty()) {
+    		double rate = Double.parseDouble(registrationRate.trim());
+    		// a burst of one second of registrations unless configured
+    		mqttServer.setRegistrationAdmission(rate, 
+    				registrationBurst > 0 ? registrationBurst : Math.max(1, (int) Math.ceil(rate)));
+    	}
+    	lwServer = mqttServer;
     	lwServer.start();
     }
     
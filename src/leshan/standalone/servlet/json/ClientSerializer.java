@@ -54,7 +54,8 @@ public class ClientSerializer implements JsonSerializer<Client> {
         element.addProperty("lifetime", src.getLifeTimeInSec());
         element.addProperty("bindingMode", src.getBindingMode().toString());
         element.add("rootPath", context.serialize(src.getRootPath()));
-        element.add("objectLinks", context.serialize(src.getObjectLinks()));
+        // the sorted links shared by the client, not a sorted copy
+        element.add("objectLinks", context.serialize(src.getLinks().asList()));
        // element.add("secure",
        //         context.serialize(src.getRegistrationEndpointAddress().getPort() == LeshanServer.PORT_DTLS));
         element.add("secure", context.serialize(""));